@@ -0,0 +1,366 @@
+package org.zalando.nakadi_mock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.TypeRef;
+
+/**
+ * An alternative to {@link EventSubmissionCallback} for producers which send
+ * lots of small batches. Instead of calling back once per HTTP request, the
+ * requests are answered right away by a fast-path policy (by default with
+ * 200), and the events of accepted requests are passed to a consumer in
+ * coalesced micro-batches.
+ * <p>
+ * The events are mapped and delivered on a dedicated thread (one per event
+ * type). A micro-batch is delivered as soon as it reaches
+ * {@link #flushAt(int) the maximum size}, or when its oldest event has waited
+ * for {@link #flushAfter(long, TimeUnit) the maximum delay}. Events are
+ * delivered in the order the requests were answered.
+ * </p>
+ * <p>
+ * The number of accepted but not yet delivered events is limited by
+ * {@link #maxPendingEvents(int)}. When a request would exceed it (because the
+ * consumer can't keep up), it is rejected with 429 (Too Many Requests)
+ * instead of being queued. Requests are not blocked, as they are handled on
+ * the I/O threads of the server.
+ * </p>
+ *
+ * <pre>
+ * List&lt;MyEvent&gt; received = new ArrayList&lt;&gt;();
+ * CoalescingCallback&lt;MyEvent&gt; callback = CoalescingCallback.of(MyEvent.class, received::addAll)
+ *         .flushAt(500)
+ *         .flushAfter(50, TimeUnit.MILLISECONDS);
+ * mock.eventType("my-event").setCoalescingCallback(callback);
+ * ...
+ * callback.flush();
+ * assertThat(received, hasSize(10000));
+ * </pre>
+ *
+ * @param <E> the type used for parsing the events.
+ */
+public final class CoalescingCallback<E> {
+    private static final int DEFAULT_MAX_EVENTS = 1000;
+    private static final long DEFAULT_MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int DEFAULT_MAX_PENDING_EVENTS = 100_000;
+
+    /**
+     * A queued request, with the time it was accepted.
+     */
+    private static class PendingRequest {
+        final DocumentContext document;
+        final int eventCount;
+        final long enqueuedNanos;
+
+        PendingRequest(DocumentContext document, int eventCount, long enqueuedNanos) {
+            this.document = document;
+            this.eventCount = eventCount;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    private final TypeRef<List<E>> listTypeRef;
+    private final Consumer<List<E>> consumer;
+    private int maxEvents = DEFAULT_MAX_EVENTS;
+    private long maxDelayNanos = DEFAULT_MAX_DELAY_NANOS;
+    private int maxPendingEvents = DEFAULT_MAX_PENDING_EVENTS;
+    private volatile Supplier<NakadiSubmissionAnswer> answerPolicy = NakadiSubmissionAnswer::ok;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<PendingRequest> pending = new ArrayDeque<>();
+    /** events in the queue, not yet taken for delivery. */
+    private int pendingEvents = 0;
+    /** events accepted, but not yet delivered (including those being delivered). */
+    private long undeliveredEvents = 0;
+    private long enqueuedRequests = 0;
+    private long deliveredRequests = 0;
+    private boolean flushRequested = false;
+    private boolean stopping = false;
+    private Thread thread;
+    private Throwable consumerFailure;
+
+    private CoalescingCallback(TypeRef<List<E>> listTypeRef, Consumer<List<E>> consumer) {
+        this.listTypeRef = listTypeRef;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Creates a coalescing callback.
+     *
+     * @param type a class object for the event type. Use this only if you
+     *            have a class without type parameters.
+     * @param consumer receives the micro-batches of events.
+     */
+    public static <E> CoalescingCallback<E> of(Class<E> type, Consumer<List<E>> consumer) {
+        return new CoalescingCallback<>(TypeUtils.getListTypeRef(type), consumer);
+    }
+
+    /**
+     * Creates a coalescing callback.
+     *
+     * @param type a type reference for the event type. You can use e.g.
+     *            <code>{@code new TypeRef<Map<String, String>>}(){}}</code>
+     *            to get such a type reference.
+     * @param consumer receives the micro-batches of events.
+     */
+    public static <E> CoalescingCallback<E> of(TypeRef<E> type, Consumer<List<E>> consumer) {
+        return new CoalescingCallback<>(TypeUtils.getListTypeRef(type), consumer);
+    }
+
+    /**
+     * Sets the maximum number of events in one micro-batch (default 1000). A
+     * micro-batch is delivered as soon as enough events are there.
+     */
+    public CoalescingCallback<E> flushAt(int maxEvents) {
+        synchronized (lock) {
+            this.maxEvents = maxEvents;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the maximum time an event waits for more events before it is
+     * delivered (default 100 ms).
+     */
+    public CoalescingCallback<E> flushAfter(long maxDelay, TimeUnit unit) {
+        synchronized (lock) {
+            this.maxDelayNanos = unit.toNanos(maxDelay);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the policy deciding the HTTP answer, without looking at the
+     * events. Only the events of requests answered with 200 are delivered to
+     * the consumer. The default always answers with
+     * {@link NakadiSubmissionAnswer#ok()}.
+     */
+    public CoalescingCallback<E> answeringWith(Supplier<NakadiSubmissionAnswer> answerPolicy) {
+        this.answerPolicy = answerPolicy;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of accepted events which are not yet delivered
+     * (default 100000). A request which would exceed it is answered with 429
+     * (Too Many Requests), so a consumer which can't keep up doesn't make the
+     * queue grow without limit. A single request is always accepted when
+     * nothing is pending.
+     */
+    public CoalescingCallback<E> maxPendingEvents(int maxPendingEvents) {
+        synchronized (lock) {
+            this.maxPendingEvents = maxPendingEvents;
+        }
+        return this;
+    }
+
+    /**
+     * Delivers all events of requests answered so far, and waits until the
+     * consumer has processed them.
+     *
+     * @throws IllegalStateException if the events of some request couldn't be
+     *             mapped to the event type (those events are not delivered,
+     *             the events of other requests are), or if the consumer threw
+     *             an exception or error for some micro-batch (the rest of that
+     *             micro-batch is not delivered) since the last flush.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void flush() throws InterruptedException {
+        synchronized (lock) {
+            long target = enqueuedRequests;
+            if (deliveredRequests < target) {
+                flushRequested = true;
+                lock.notifyAll();
+            }
+            while (deliveredRequests < target) {
+                lock.wait();
+            }
+            rethrowConsumerFailure();
+        }
+    }
+
+    /**
+     * Called from the request thread. Decides the answer, and enqueues the
+     * events if they are accepted.
+     */
+    NakadiSubmissionAnswer submit(DocumentContext document) {
+        // the policy is user code, so don't call it while holding the lock.
+        NakadiSubmissionAnswer answer = answerPolicy.get();
+        if (answer.status != 200) {
+            return answer;
+        }
+        int eventCount = length(document);
+        synchronized (lock) {
+            if (undeliveredEvents > 0 && undeliveredEvents + eventCount > maxPendingEvents) {
+                return NakadiSubmissionAnswer.problem(429, "Too Many Requests",
+                        "More than " + maxPendingEvents + " events are waiting for delivery.");
+            }
+            pending.add(new PendingRequest(document, eventCount, System.nanoTime()));
+            pendingEvents += eventCount;
+            undeliveredEvents += eventCount;
+            enqueuedRequests++;
+            if (thread == null) {
+                stopping = false;
+                startThread();
+            }
+            lock.notifyAll();
+            return answer;
+        }
+    }
+
+    /**
+     * Delivers everything pending and stops the delivery thread. It is
+     * restarted on the next submission.
+     */
+    void close() {
+        Thread toJoin;
+        synchronized (lock) {
+            stopping = true;
+            lock.notifyAll();
+            toJoin = thread;
+        }
+        if (toJoin != null && toJoin != Thread.currentThread()) {
+            try {
+                toJoin.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                List<PendingRequest> requests;
+                synchronized (lock) {
+                    try {
+                        waitForFlushCondition();
+                    } catch (InterruptedException e) {
+                        thread = null;
+                        return;
+                    }
+                    if (pending.isEmpty()) {
+                        // only reached when stopping.
+                        thread = null;
+                        return;
+                    }
+                    requests = takeMicroBatch();
+                }
+                deliver(requests);
+            }
+        } finally {
+            // if the thread dies unexpectedly, don't leave the events (and flush()) stuck.
+            synchronized (lock) {
+                if (thread == Thread.currentThread()) {
+                    thread = null;
+                    if (!pending.isEmpty()) {
+                        startThread();
+                    }
+                }
+            }
+        }
+    }
+
+    private void startThread() {
+        thread = new Thread(this::run, "nakadi-mock-coalescer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void waitForFlushCondition() throws InterruptedException {
+        while (true) {
+            if (pending.isEmpty()) {
+                if (stopping) {
+                    return;
+                }
+                lock.wait();
+            } else {
+                if (stopping || flushRequested || pendingEvents >= maxEvents) {
+                    return;
+                }
+                long remaining = pending.peek().enqueuedNanos + maxDelayNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    return;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+        }
+    }
+
+    /**
+     * Takes whole requests until the micro-batch is full. A single request
+     * larger than maxEvents is taken alone, and split when delivering.
+     */
+    private List<PendingRequest> takeMicroBatch() {
+        List<PendingRequest> requests = new ArrayList<>();
+        int events = 0;
+        while (!pending.isEmpty()) {
+            int next = pending.peek().eventCount;
+            if (!requests.isEmpty() && events + next > maxEvents) {
+                break;
+            }
+            requests.add(pending.poll());
+            events += next;
+        }
+        pendingEvents -= events;
+        if (pending.isEmpty()) {
+            flushRequested = false;
+        }
+        return requests;
+    }
+
+    /**
+     * Maps each request on its own, so a request whose events can't be
+     * mapped only loses its own events, not those of the other requests in
+     * the micro-batch.
+     */
+    private void deliver(List<PendingRequest> requests) {
+        Throwable failure = null;
+        List<E> events = new ArrayList<>();
+        for (PendingRequest request : requests) {
+            try {
+                events.addAll(request.document.read("$.[*]", listTypeRef));
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        try {
+            int chunkSize = Math.max(1, maxEvents);
+            for (int start = 0; start < events.size(); start += chunkSize) {
+                consumer.accept(events.subList(start, Math.min(events.size(), start + chunkSize)));
+            }
+        } catch (Throwable e) {
+            // including errors, e.g. a failed assertion in the consumer.
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        synchronized (lock) {
+            if (failure != null && consumerFailure == null) {
+                consumerFailure = failure;
+            }
+            deliveredRequests += requests.size();
+            undeliveredEvents -= requests.stream().mapToInt(request -> request.eventCount).sum();
+            lock.notifyAll();
+        }
+    }
+
+    private void rethrowConsumerFailure() {
+        if (consumerFailure != null) {
+            Throwable failure = consumerFailure;
+            consumerFailure = null;
+            throw new IllegalStateException("coalescing callback failed", failure);
+        }
+    }
+
+    private static int length(DocumentContext document) {
+        return document.configuration().jsonProvider().length(document.json());
+    }
+}
@@ -0,0 +1,43 @@
+package org.zalando.nakadi_mock;
+
+import java.util.Objects;
+
+/**
+ * Identifies one partition of an event type, as consumed in a subscription.
+ */
+public final class EventTypePartition {
+    private final String eventType;
+    private final String partition;
+
+    public EventTypePartition(String eventType, String partition) {
+        this.eventType = eventType;
+        this.partition = partition;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public String getPartition() {
+        return partition;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof EventTypePartition)) {
+            return false;
+        }
+        EventTypePartition that = (EventTypePartition) other;
+        return eventType.equals(that.eventType) && partition.equals(that.partition);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(eventType, partition);
+    }
+
+    @Override
+    public String toString() {
+        return eventType + ":" + partition;
+    }
+}
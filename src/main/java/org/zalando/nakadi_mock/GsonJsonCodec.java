@@ -0,0 +1,46 @@
+package org.zalando.nakadi_mock;
+
+import static com.google.gson.FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.spi.json.GsonJsonProvider;
+import com.jayway.jsonpath.spi.mapper.GsonMappingProvider;
+
+/**
+ * A {@link JsonCodec} using Gson. This is the default codec. By default, it
+ * maps Java fields in camelCase to JSON properties in snake_case (e.g.
+ * {@code occurredAt} to {@code occurred_at}).
+ */
+public class GsonJsonCodec implements JsonCodec {
+    private final Configuration configuration;
+    private final Gson encoder = new GsonBuilder().disableHtmlEscaping().create();
+
+    /**
+     * Creates a codec with the default Gson configuration.
+     */
+    public GsonJsonCodec() {
+        this(new GsonBuilder().setFieldNamingPolicy(LOWER_CASE_WITH_UNDERSCORES).create());
+    }
+
+    /**
+     * Creates a codec which maps events with the given Gson instance.
+     */
+    public GsonJsonCodec(Gson gson) {
+        this.configuration = Configuration.builder()
+                .jsonProvider(new GsonJsonProvider())
+                .mappingProvider(new GsonMappingProvider(gson))
+                .build();
+    }
+
+    @Override
+    public Configuration jsonPathConfiguration() {
+        return configuration;
+    }
+
+    @Override
+    public String encode(Object value) {
+        return encoder.toJson(value);
+    }
+}
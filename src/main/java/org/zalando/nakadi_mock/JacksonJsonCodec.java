@@ -0,0 +1,59 @@
+package org.zalando.nakadi_mock;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.spi.json.JacksonJsonProvider;
+import com.jayway.jsonpath.spi.mapper.JacksonMappingProvider;
+
+/**
+ * A {@link JsonCodec} using Jackson, which respects Jackson annotations on
+ * your event classes. jackson-databind is an optional dependency of
+ * NakadiMock, so you need to add it to your test classpath.
+ */
+public class JacksonJsonCodec implements JsonCodec {
+    private final Configuration configuration;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Creates a codec with an object mapper behaving like the default Gson
+     * codec: it maps fields (also private ones) in camelCase to JSON
+     * properties in snake_case, and ignores unknown properties.
+     */
+    public JacksonJsonCodec() {
+        this(new ObjectMapper()
+                .setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE)
+                .setVisibility(PropertyAccessor.FIELD, Visibility.ANY)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES));
+    }
+
+    /**
+     * Creates a codec which uses the given object mapper (e.g. the one of
+     * your application) for mapping events and encoding answers.
+     */
+    public JacksonJsonCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.configuration = Configuration.builder()
+                .jsonProvider(new JacksonJsonProvider(objectMapper))
+                .mappingProvider(new JacksonMappingProvider(objectMapper))
+                .build();
+    }
+
+    @Override
+    public Configuration jsonPathConfiguration() {
+        return configuration;
+    }
+
+    @Override
+    public String encode(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("can't encode " + value, e);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.zalando.nakadi_mock;
+
+import com.jayway.jsonpath.Configuration;
+
+/**
+ * The JSON library used by NakadiMock, both for decoding submitted events and
+ * for encoding answers. Set it with {@link NakadiMock#setJsonCodec(JsonCodec)}
+ * before starting the mock.
+ * <p>
+ * Two implementations are included: {@link GsonJsonCodec} (the default) and
+ * {@link JacksonJsonCodec} (which needs jackson-databind on the classpath).
+ * Choose the one which maps your event classes correctly, e.g. Jackson if
+ * they are annotated with Jackson annotations.
+ * </p>
+ * <p>
+ * Decoding always goes through the JsonPath document tree of the codec's
+ * {@link com.jayway.jsonpath.spi.json.JsonProvider JsonProvider}: a batch is
+ * parsed into a tree once (which is also used for batch limits, verifiers and
+ * subscriptions), and then mapped to the event type by the
+ * {@link com.jayway.jsonpath.spi.mapper.MappingProvider MappingProvider}. A
+ * purely streaming decoder (e.g. Jackson's streaming parser, mapping directly
+ * from the request body) can't be plugged in through this interface.
+ * </p>
+ */
+public interface JsonCodec {
+    /**
+     * The JsonPath configuration used for parsing submitted batches and for
+     * mapping the events to the type of the callback.
+     */
+    Configuration jsonPathConfiguration();
+
+    /**
+     * Encodes a simple value tree as JSON. The value consists only of maps
+     * with string keys, lists, strings, numbers, booleans and null.
+     */
+    String encode(Object value);
+}
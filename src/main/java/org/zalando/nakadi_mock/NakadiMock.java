@@ -3,6 +3,8 @@ package org.zalando.nakadi_mock;
 import com.jayway.jsonpath.TypeRef;
 
 import java.net.URL;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A mock of Nakadi. This interface allows to configure the mock, and to
@@ -61,10 +63,105 @@ public interface NakadiMock {
          *            and decides how to answer.
          */
         <T> void setSubmissionCallback(Class<T> type, EventSubmissionCallback<T> callback);
+
+        /**
+         * Switches this event type to coalescing mode: requests are answered
+         * right away by the callback's answer policy, and the events are
+         * delivered in micro-batches on a separate thread. This replaces any
+         * submission callback (and setting a submission callback again
+         * switches coalescing mode off).
+         *
+         * @param callback the coalescing callback.
+         */
+        void setCoalescingCallback(CoalescingCallback<?> callback);
+
+        /**
+         * Limits the size of the request body accepted for this event type.
+         * Larger requests are answered with 413 (Payload Too Large) as soon as
+         * this is known (from the Content-Length header, or while reading the
+         * body), without buffering the rest of it.
+         *
+         * @param maxBytes the maximum number of bytes in a request body, or 0
+         *            (the default) for no limit.
+         */
+        void setMaxRequestSize(long maxBytes);
+
+        /**
+         * Limits the number of events in a single batch for this event type.
+         * Larger batches are answered with 422 (Unprocessable Entity) before
+         * the events are mapped and passed to the callback.
+         *
+         * @param maxEvents the maximum number of events in a batch, or 0 (the
+         *            default) for no limit.
+         */
+        void setMaxBatchSize(int maxEvents);
+
+        /**
+         * Adds a verifier, which gets to see every event of accepted batches
+         * of this event type, in the order of arrival.
+         *
+         * @param verifier the verifier, e.g. an {@link OrderingVerifier}.
+         */
+        void addVerifier(SubmissionVerifier verifier);
+
+        /**
+         * Sets the number of partitions of this event type (default 1). This
+         * needs to be set before any subscription for this event type is
+         * created.
+         */
+        void setPartitionCount(int count);
+
+        /**
+         * Sets how accepted events are distributed to the partitions. Events
+         * with the same value at this path go to the same partition. Without
+         * a partition key (the default), events are distributed round-robin.
+         *
+         * @param jsonPath a JsonPath expression (relative to the event) for the
+         *            partition key, e.g. {@code $.order_id}.
+         */
+        void setPartitionKey(String jsonPath);
+    }
+
+    /**
+     * A subscription, which can be consumed by several streams in parallel
+     * (using {@code GET /subscriptions/{id}/events} and committing with
+     * {@code POST /subscriptions/{id}/cursors}). The partitions of its event
+     * types are distributed evenly between the streams, and rebalanced
+     * whenever a stream connects or disconnects.
+     */
+    interface Subscription {
+        String getId();
+
+        List<String> getEventTypes();
+
+        /**
+         * Returns the current assignment of partitions to streams, by stream
+         * id (as sent to the client in the X-Nakadi-StreamId header). The
+         * streams are in the order they connected.
+         */
+        Map<String, List<EventTypePartition>> getAssignments();
     }
 
     EventType eventType(String name);
 
+    /**
+     * Sets the JSON library used for decoding events and encoding answers.
+     * The default is a {@link GsonJsonCodec}. Call this before
+     * {@link #start()}.
+     */
+    void setJsonCodec(JsonCodec codec);
+
+    /**
+     * Creates a subscription for existing event types. Accepted events
+     * submitted from now on are stored until they are committed, and can be
+     * consumed through the subscription API (starting with the first event
+     * after creation, like {@code read_from=end}).
+     *
+     * @throws IllegalArgumentException if one of the event types doesn't
+     *             exist.
+     */
+    Subscription subscription(String id, String... eventTypes);
+
     void stop();
 
     URL getRootUrl();
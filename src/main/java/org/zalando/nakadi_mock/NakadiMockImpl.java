@@ -1,18 +1,25 @@
 package org.zalando.nakadi_mock;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 
-import static com.google.gson.FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES;
-
-import com.google.gson.GsonBuilder;
 import com.jayway.jsonpath.*;
-import com.jayway.jsonpath.spi.json.GsonJsonProvider;
-import com.jayway.jsonpath.spi.mapper.GsonMappingProvider;
+import com.jayway.jsonpath.spi.json.JsonProvider;
 
 import io.undertow.Handlers;
 import io.undertow.Undertow;
@@ -26,13 +33,10 @@ import io.undertow.util.HttpString;
 import io.undertow.util.PathTemplateMatch;
 
 class NakadiMockImpl implements NakadiMock {
-    private static HttpString CONTENT_TYPE_HEADER = new HttpString("Content-Type");
-
-    Configuration jsonPathConfig = Configuration.builder()
-            .jsonProvider(new GsonJsonProvider())
-            .mappingProvider(new GsonMappingProvider(new GsonBuilder().setFieldNamingPolicy(LOWER_CASE_WITH_UNDERSCORES).create()))
-            .build();
-
+    private JsonCodec jsonCodec = new GsonJsonCodec();
+    Configuration jsonPathConfig = jsonCodec.jsonPathConfiguration();
+    /** the time (epoch millis) used for event arrival and consumer lag, replaceable in tests. */
+    LongSupplier clock = System::currentTimeMillis;
 
     private static class CallbackWithTypeRef<T> {
         EventSubmissionCallback<T> callback;
@@ -57,6 +61,15 @@ class NakadiMockImpl implements NakadiMock {
     private class EventTypeImpl implements EventType {
         private final String name;
         private CallbackWithTypeRef<?> callback = new CallbackWithTypeRef<>(Object.class, EventSubmissionCallback.IGNORING_CALLBACK);
+        private volatile CoalescingCallback<?> coalescingCallback;
+        private long maxRequestSize = 0;
+        private int maxBatchSize = 0;
+        private final List<SubmissionVerifier> verifiers = new CopyOnWriteArrayList<>();
+        private int partitionCount = 1;
+        private JsonPath partitionKeyPath;
+        /** only created once a subscription reads this event type. */
+        private volatile PartitionLog[] partitionLogs;
+        private final AtomicInteger nextRoundRobinPartition = new AtomicInteger();
 
         private EventTypeImpl(String name) {
             this.name = name;
@@ -69,19 +82,68 @@ class NakadiMockImpl implements NakadiMock {
 
         @Override
         public <T> void setSubmissionCallback(EventSubmissionCallback<T> callback) {
+            setCoalescingCallback(null);
             this.callback = new CallbackWithTypeRef<>(callback);
         }
 
         @Override
         public <T> void setSubmissionCallback(TypeRef<T> type, EventSubmissionCallback<T> callback) {
+            setCoalescingCallback(null);
             this.callback = new CallbackWithTypeRef<>(type, callback);
         }
 
         @Override
         public <T> void setSubmissionCallback(Class<T> type, EventSubmissionCallback<T> callback) {
+            setCoalescingCallback(null);
             this.callback = new CallbackWithTypeRef<>(type, callback);
         }
 
+        @Override
+        public void setCoalescingCallback(CoalescingCallback<?> callback) {
+            if (coalescingCallback != null) {
+                coalescingCallback.close();
+            }
+            this.coalescingCallback = callback;
+        }
+
+        @Override
+        public void setMaxRequestSize(long maxBytes) {
+            this.maxRequestSize = maxBytes;
+        }
+
+        @Override
+        public void setMaxBatchSize(int maxEvents) {
+            this.maxBatchSize = maxEvents;
+        }
+
+        @Override
+        public void addVerifier(SubmissionVerifier verifier) {
+            verifiers.add(verifier);
+        }
+
+        @Override
+        public synchronized void setPartitionCount(int count) {
+            if (partitionLogs != null) {
+                throw new IllegalStateException("Event type " + name + " already has subscriptions.");
+            }
+            this.partitionCount = count;
+        }
+
+        @Override
+        public void setPartitionKey(String jsonPath) {
+            this.partitionKeyPath = jsonPath != null ? JsonPath.compile(jsonPath) : null;
+        }
+
+        private synchronized PartitionLog[] getOrCreatePartitionLogs() {
+            if (partitionLogs == null) {
+                partitionLogs = new PartitionLog[partitionCount];
+                for (int i = 0; i < partitionCount; i++) {
+                    partitionLogs[i] = new PartitionLog();
+                }
+            }
+            return partitionLogs;
+        }
+
         private <T> NakadiSubmissionAnswer parseAndPassToCallback(CallbackWithTypeRef<T> callback,
                 DocumentContext document) {
             List<T> events = document.read("$.[*]", callback.listTypeRef);
@@ -89,21 +151,137 @@ class NakadiMockImpl implements NakadiMock {
             return answer;
         }
 
+        private void receiveSubmission(HttpServerExchange exchange) throws Exception {
+            if (maxRequestSize <= 0) {
+                new RequestBufferingHandler(
+                        ex -> ex.getRequestReceiver().receiveFullString(this::handleSubmission, StandardCharsets.UTF_8),
+                        10)
+                .handleRequest(exchange);
+                return;
+            }
+            if (exchange.getRequestContentLength() > maxRequestSize) {
+                rejectTooLarge(exchange);
+                return;
+            }
+            // Receive chunk by chunk, so a (chunked) body without Content-Length
+            // is rejected as soon as it crosses the limit.
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            exchange.getRequestReceiver().receivePartialBytes((ex, bytes, last) -> {
+                if (content.size() + bytes.length > maxRequestSize) {
+                    ex.getRequestReceiver().pause();
+                    rejectTooLarge(ex);
+                    return;
+                }
+                content.write(bytes, 0, bytes.length);
+                if (last) {
+                    handleSubmission(ex, new String(content.toByteArray(), StandardCharsets.UTF_8));
+                }
+            });
+        }
+
+        private void rejectTooLarge(HttpServerExchange exchange) {
+            // we don't want to read the rest of the body, so the connection can't be reused.
+            exchange.setPersistent(false);
+            sendAnswer(exchange, requestTooLarge());
+        }
+
+        private NakadiSubmissionAnswer requestTooLarge() {
+            return NakadiSubmissionAnswer.problem(413, "Payload Too Large",
+                    "Request body exceeds the maximum of " + maxRequestSize + " bytes.");
+        }
+
         private void handleSubmission(HttpServerExchange exchange, String requestContent) {
             DocumentContext document = JsonPath.parse(requestContent, jsonPathConfig);
+            if (maxBatchSize > 0 && !batchSizeWithinLimit(document)) {
+                sendAnswer(exchange, NakadiSubmissionAnswer.problem(422, "Unprocessable Entity",
+                        "Batch contains more than the maximum of " + maxBatchSize + " events."));
+                return;
+            }
+
+            CoalescingCallback<?> coalescing = coalescingCallback;
+            NakadiSubmissionAnswer answer = coalescing != null
+                    ? coalescing.submit(document)
+                    : parseAndPassToCallback(callback, document);
+            if (answer.status == 200) {
+                passAcceptedEvents(document);
+            }
+            sendAnswer(exchange, answer);
+        }
 
-            NakadiSubmissionAnswer answer = parseAndPassToCallback(callback, document);
-            exchange.setStatusCode(answer.status);
-            String responseContentType = answer.contentType;
-            exchange.getResponseHeaders().put(CONTENT_TYPE_HEADER, responseContentType);
+        /**
+         * Passes the events of an accepted batch to the verifiers, and stores
+         * them for the subscriptions (if there are any).
+         */
+        private void passAcceptedEvents(DocumentContext document) {
+            PartitionLog[] logs = partitionLogs;
+            boolean stored = logs != null;
+            if (verifiers.isEmpty() && !stored) {
+                return;
+            }
+            JsonProvider provider = jsonPathConfig.jsonProvider();
+            ParseContext parseContext = JsonPath.using(jsonPathConfig);
+            Object events = document.json();
+            int length = provider.length(events);
+            List<String> partitionKeys = new ArrayList<>();
+            List<String> rawEvents = new ArrayList<>();
+            for (int i = 0; i < length; i++) {
+                Object event = provider.getArrayIndex(events, i);
+                ReadContext eventContext = parseContext.parse(event);
+                for (SubmissionVerifier verifier : verifiers) {
+                    verifier.verifyEvent(eventContext);
+                }
+                if (stored) {
+                    partitionKeys.add(readPartitionKey(eventContext));
+                    rawEvents.add(provider.toJson(event));
+                }
+            }
+            if (stored) {
+                // append each partition's events at once, so its readers are woken up only once.
+                List<List<String>> eventsByPartition = new ArrayList<>();
+                for (int i = 0; i < logs.length; i++) {
+                    eventsByPartition.add(new ArrayList<>());
+                }
+                for (int i = 0; i < rawEvents.size(); i++) {
+                    String key = partitionKeys.get(i);
+                    int partition = key != null
+                            ? Math.floorMod(key.hashCode(), logs.length)
+                            : Math.floorMod(nextRoundRobinPartition.getAndIncrement(), logs.length);
+                    eventsByPartition.get(partition).add(rawEvents.get(i));
+                }
+                long arrivalTime = clock.getAsLong();
+                for (int i = 0; i < logs.length; i++) {
+                    if (!eventsByPartition.get(i).isEmpty()) {
+                        logs[i].append(eventsByPartition.get(i), arrivalTime);
+                    }
+                }
+            }
+        }
 
-            String responseContent = answer.getBody();
-            if (responseContent != null) {
-                exchange.getResponseSender().send(responseContent);
-            } else {
-                exchange.endExchange();
+        private String readPartitionKey(ReadContext event) {
+            if (partitionKeyPath == null) {
+                return null;
+            }
+            try {
+                return event.read(partitionKeyPath, String.class);
+            } catch (PathNotFoundException e) {
+                return null;
             }
         }
+
+        /**
+         * Counts the events on the parsed (but not yet mapped) document, with
+         * the JSON provider of the selected codec. Anything which is not an
+         * array is left for the mapping to complain about.
+         */
+        private boolean batchSizeWithinLimit(DocumentContext document) {
+            JsonProvider provider = jsonPathConfig.jsonProvider();
+            Object json = document.json();
+            return !provider.isArray(json) || provider.length(json) <= maxBatchSize;
+        }
+
+        private void sendAnswer(HttpServerExchange exchange, NakadiSubmissionAnswer answer) {
+            answer.send(exchange, jsonCodec);
+        }
     }
 
     private Map<String, EventTypeImpl> eventTypes = new HashMap<>();
@@ -115,25 +293,104 @@ class NakadiMockImpl implements NakadiMock {
         return type;
     }
 
+    @Override
+    public void setJsonCodec(JsonCodec codec) {
+        this.jsonCodec = codec;
+        this.jsonPathConfig = codec.jsonPathConfiguration();
+    }
+
+    private Map<String, SubscriptionImpl> subscriptions = new HashMap<>();
+
+    @Override
+    public Subscription subscription(String id, String... eventTypeNames) {
+        Map<String, PartitionLog[]> logs = new LinkedHashMap<>();
+        for (String eventTypeName : eventTypeNames) {
+            EventTypeImpl type = eventTypes.get(eventTypeName);
+            if (type == null) {
+                throw new IllegalArgumentException("Event type " + eventTypeName + " doesn't exist.");
+            }
+            logs.put(eventTypeName, type.getOrCreatePartitionLogs());
+        }
+        SubscriptionImpl subscription = new SubscriptionImpl(id, logs, () -> clock.getAsLong());
+        subscriptions.put(id, subscription);
+        return subscription;
+    }
+
     private Undertow server;
+    private ExecutorService streamExecutor;
 
     private void handleSubmission(HttpServerExchange exchange) throws Exception {
         PathTemplateMatch match = exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY);
         String eventTypeName = match.getParameters().get("type");
         EventTypeImpl type = eventTypes.get(eventTypeName);
         if (type != null) {
-            new RequestBufferingHandler(ex -> ex.getRequestReceiver().receiveFullString(type::handleSubmission), 10)
-            .handleRequest(exchange);
+            type.receiveSubmission(exchange);
         } else {
             ResponseCodeHandler.HANDLE_404.handleRequest(exchange);
         }
     }
 
+    private SubscriptionImpl findSubscription(HttpServerExchange exchange) {
+        PathTemplateMatch match = exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY);
+        SubscriptionImpl subscription = subscriptions.get(match.getParameters().get("subscription_id"));
+        if (subscription == null) {
+            NakadiSubmissionAnswer.problem(404, "Not Found", "Subscription not found.").send(exchange, jsonCodec);
+        }
+        return subscription;
+    }
+
+    private void handleStream(HttpServerExchange exchange) {
+        SubscriptionImpl subscription = findSubscription(exchange);
+        if (subscription != null) {
+            // streams block for a long time, so they get threads of their own.
+            JsonCodec codec = jsonCodec;
+            exchange.dispatch(streamExecutor, () -> {
+                exchange.startBlocking();
+                subscription.handleStream(exchange, codec);
+            });
+        }
+    }
+
+    private void handleCursors(HttpServerExchange exchange) {
+        SubscriptionImpl subscription = findSubscription(exchange);
+        if (subscription == null) {
+            return;
+        }
+        JsonCodec codec = jsonCodec;
+        if (exchange.getRequestMethod().equalToString("GET")) {
+            subscription.getCursors().send(exchange, codec);
+        } else {
+            String streamId = exchange.getRequestHeaders().getFirst("X-Nakadi-StreamId");
+            exchange.getRequestReceiver().receiveFullString(
+                    (ex, content) -> subscription.commitCursors(streamId, content, codec).send(ex, codec));
+        }
+    }
+
+    private void handleStats(HttpServerExchange exchange) {
+        SubscriptionImpl subscription = findSubscription(exchange);
+        if (subscription != null) {
+            Deque<String> showTimeLag = exchange.getQueryParameters().get("show_time_lag");
+            boolean timeLag = showTimeLag != null && Boolean.parseBoolean(showTimeLag.peekFirst());
+            subscription.getStats(timeLag).send(exchange, jsonCodec);
+        }
+    }
+
     @Override
     public void start() {
-
-        HttpHandler handler = Handlers.pathTemplate().add("/event-types/{type}/events",
-                new AllowedMethodsHandler(this::handleSubmission, new HttpString("POST")));
+        streamExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "nakadi-mock-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        HttpHandler handler = Handlers.pathTemplate()
+                .add("/event-types/{type}/events",
+                        new AllowedMethodsHandler(this::handleSubmission, new HttpString("POST")))
+                .add("/subscriptions/{subscription_id}/events",
+                        new AllowedMethodsHandler(this::handleStream, new HttpString("GET")))
+                .add("/subscriptions/{subscription_id}/cursors",
+                        new AllowedMethodsHandler(this::handleCursors, new HttpString("GET"), new HttpString("POST")))
+                .add("/subscriptions/{subscription_id}/stats",
+                        new AllowedMethodsHandler(this::handleStats, new HttpString("GET")));
         server = Undertow.builder()//
                 .addHttpListener(0, "localhost") //
                 .setHandler(handler) //
@@ -155,8 +412,19 @@ class NakadiMockImpl implements NakadiMock {
 
     @Override
     public void stop() {
+        for (SubscriptionImpl subscription : subscriptions.values()) {
+            subscription.closeAllStreams();
+        }
         if (server != null) {
             server.stop();
         }
+        if (streamExecutor != null) {
+            streamExecutor.shutdownNow();
+        }
+        for (EventTypeImpl type : eventTypes.values()) {
+            if (type.coalescingCallback != null) {
+                type.coalescingCallback.close();
+            }
+        }
     }
 }
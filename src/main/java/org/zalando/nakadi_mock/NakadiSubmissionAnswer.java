@@ -5,9 +5,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HttpString;
+
 public abstract class NakadiSubmissionAnswer {
+    private static HttpString CONTENT_TYPE_HEADER = new HttpString("Content-Type");
 
     private static NakadiSubmissionAnswer okAnswer = new ConstantNakadiSubmissionAnswer(200, null, null);
+    private static NakadiSubmissionAnswer noContentAnswer = new ConstantNakadiSubmissionAnswer(204, null, null);
     private static NakadiSubmissionAnswer noAuthAnswer = new ConstantNakadiSubmissionAnswer(401,
             "application/problem+json", null /* TODO: add problem */);
     private static NakadiSubmissionAnswer forbiddenAnswer = new ConstantNakadiSubmissionAnswer(403,
@@ -22,12 +27,43 @@ public abstract class NakadiSubmissionAnswer {
         }
 
         @Override
-        String getBody() {
+        String getBody(JsonCodec codec) {
             return body;
         }
 
     }
 
+    private static class ProblemAnswer extends NakadiSubmissionAnswer {
+        private final Map<String, Object> problem = new LinkedHashMap<>();
+
+        ProblemAnswer(int status, String title, String detail) {
+            super(status, "application/problem+json");
+            problem.put("type", "http://httpstatus.es/" + status);
+            problem.put("title", title);
+            problem.put("status", status);
+            problem.put("detail", detail);
+        }
+
+        @Override
+        String getBody(JsonCodec codec) {
+            return codec.encode(problem);
+        }
+    }
+
+    private static class JsonAnswer extends NakadiSubmissionAnswer {
+        private final Object value;
+
+        JsonAnswer(int status, Object value) {
+            super(status, "application/json");
+            this.value = value;
+        }
+
+        @Override
+        String getBody(JsonCodec codec) {
+            return codec.encode(value);
+        }
+    }
+
     private static class BatchResponseAnswer extends NakadiSubmissionAnswer {
         private List<NakadiSubmissionAnswer.BatchItemResponse> items;
 
@@ -37,12 +73,14 @@ public abstract class NakadiSubmissionAnswer {
         }
 
         @Override
-        String getBody() {
-            return items.stream().map(item -> item.toJSon()).collect(Collectors.joining(", ", "[", "]"));
+        String getBody(JsonCodec codec) {
+            return codec.encode(items.stream().map(BatchItemResponse::toMap).collect(Collectors.toList()));
         }
     }
 
     public static class BatchItemResponse {
+        private static final JsonCodec TO_JSON_ENCODER = new GsonJsonCodec();
+
         enum PublishingStatus {
             SUBMITTED, FAILED, ABORTED
         }
@@ -63,20 +101,28 @@ public abstract class NakadiSubmissionAnswer {
             this.detail = detail;
         }
 
-        public String toJSon() {
+        Map<String, String> toMap() {
             Map<String, String> items = new LinkedHashMap<>();
-            items.put("eid", eid);
+            if (eid != null) {
+                items.put("eid", eid);
+            }
             items.put("publishing_status", status.name().toLowerCase());
             if (step != null) {
                 items.put("step", step.name().toLowerCase());
             }
-            items.put("detail", detail);
-            return
-                items.entrySet()
-                     .stream()
-                     .filter(entry -> entry.getValue() != null)
-                     .map(entry -> "\"" + entry.getKey() + "\": \"" + entry.getValue() + "\"")
-                     .collect(Collectors.joining(", ", "{", "}"));
+            if (detail != null) {
+                items.put("detail", detail);
+            }
+            return items;
+        }
+
+        /**
+         * @deprecated answers are encoded with the codec selected on the mock
+         *             now, this always uses Gson.
+         */
+        @Deprecated
+        public String toJSon() {
+            return TO_JSON_ENCODER.encode(toMap());
         }
     }
 
@@ -100,6 +146,28 @@ public abstract class NakadiSubmissionAnswer {
         return forbiddenAnswer;
     }
 
+    /**
+     * An answer with no body, e.g. for a successful cursor commit.
+     */
+    static NakadiSubmissionAnswer noContent() {
+        return noContentAnswer;
+    }
+
+    /**
+     * An answer with a JSON body, encoded by the codec of the mock.
+     */
+    static NakadiSubmissionAnswer json(int status, Object value) {
+        return new JsonAnswer(status, value);
+    }
+
+    /**
+     * An answer with a problem JSON body, as used by Nakadi for errors not
+     * related to single events (e.g. a too large request).
+     */
+    static NakadiSubmissionAnswer problem(int status, String title, String detail) {
+        return new ProblemAnswer(status, title, detail);
+    }
+
     private NakadiSubmissionAnswer(int status, String contentType) {
         this.status = status;
         this.contentType = contentType;
@@ -108,6 +176,18 @@ public abstract class NakadiSubmissionAnswer {
     final int status;
     final String contentType;
 
-    abstract String getBody();
+    abstract String getBody(JsonCodec codec);
+
+    void send(HttpServerExchange exchange, JsonCodec codec) {
+        exchange.setStatusCode(status);
+        exchange.getResponseHeaders().put(CONTENT_TYPE_HEADER, contentType);
+
+        String responseContent = getBody(codec);
+        if (responseContent != null) {
+            exchange.getResponseSender().send(responseContent);
+        } else {
+            exchange.endExchange();
+        }
+    }
 
 }
\ No newline at end of file
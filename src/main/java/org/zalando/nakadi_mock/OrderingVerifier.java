@@ -0,0 +1,245 @@
+package org.zalando.nakadi_mock;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.PathNotFoundException;
+import com.jayway.jsonpath.ReadContext;
+
+/**
+ * A verifier which checks that events with the same (partition) key arrive in
+ * order, while they arrive. It keeps only the last seen value (watermark) per
+ * key, so memory depends on the number of keys, not on the number of events.
+ * <p>
+ * Use {@link #bySequence(String, String)} for an integer sequence number in
+ * the payload (this also detects gaps and duplicates), or
+ * {@link #byTimestamp(String, String)} for a timestamp like
+ * {@code metadata.occurred_at}.
+ * </p>
+ *
+ * <pre>
+ * OrderingVerifier verifier = OrderingVerifier.bySequence("$.order_id", "$.sequence");
+ * mock.eventType("order-changed").addVerifier(verifier);
+ * ...
+ * assertThat(verifier.getViolations(), is(empty()));
+ * </pre>
+ */
+public class OrderingVerifier implements SubmissionVerifier {
+    private static final int DEFAULT_MAX_STORED_VIOLATIONS = 1000;
+
+    /**
+     * A single detected violation.
+     */
+    public static class Violation {
+        public enum Kind {
+            /** The event's value is lower than the last one for this key. */
+            OUT_OF_ORDER,
+            /** The event's sequence number is the same as the last one for this key. */
+            DUPLICATE,
+            /** One or more sequence numbers between the last one and this one are missing. */
+            GAP,
+            /** The event has no key or no (readable) sequence value. */
+            MISSING_FIELD
+        }
+
+        private final Kind kind;
+        private final String key;
+        private final String previous;
+        private final String actual;
+
+        Violation(Kind kind, String key, String previous, String actual) {
+            this.kind = kind;
+            this.key = key;
+            this.previous = previous;
+            this.actual = actual;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * The key of the event, or null if it couldn't be read.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * The last value seen for this key before, or null if this is a
+         * {@link Kind#MISSING_FIELD} violation.
+         */
+        public String getPrevious() {
+            return previous;
+        }
+
+        /**
+         * The value of the offending event, or null if it couldn't be read.
+         */
+        public String getActual() {
+            return actual;
+        }
+
+        @Override
+        public String toString() {
+            return kind + "[key=" + key + ", previous=" + previous + ", actual=" + actual + "]";
+        }
+    }
+
+    private final JsonPath keyPath;
+    private final JsonPath valuePath;
+    private final boolean sequence;
+
+    private final StringLongMap watermarks = new StringLongMap();
+    private final List<Violation> violations = new ArrayList<>();
+    private int maxStoredViolations = DEFAULT_MAX_STORED_VIOLATIONS;
+    private long violationCount = 0;
+    private long eventCount = 0;
+
+    private OrderingVerifier(String keyPath, String valuePath, boolean sequence) {
+        this.keyPath = JsonPath.compile(keyPath);
+        this.valuePath = JsonPath.compile(valuePath);
+        this.sequence = sequence;
+    }
+
+    /**
+     * Creates a verifier checking that, per key, an integer sequence number
+     * increases by exactly one from event to event.
+     *
+     * @param keyPath a JsonPath expression (relative to the event) for the
+     *            partition key.
+     * @param sequencePath a JsonPath expression (relative to the event) for
+     *            the sequence number.
+     */
+    public static OrderingVerifier bySequence(String keyPath, String sequencePath) {
+        return new OrderingVerifier(keyPath, sequencePath, true);
+    }
+
+    /**
+     * Creates a verifier checking that, per key, a timestamp (in RFC 3339
+     * format, like Nakadi's {@code occurred_at}) never decreases. Equal
+     * timestamps are fine, and gaps can't be detected this way.
+     *
+     * @param keyPath a JsonPath expression (relative to the event) for the
+     *            partition key.
+     * @param timestampPath a JsonPath expression (relative to the event) for
+     *            the timestamp, e.g. {@code $.metadata.occurred_at}.
+     */
+    public static OrderingVerifier byTimestamp(String keyPath, String timestampPath) {
+        return new OrderingVerifier(keyPath, timestampPath, false);
+    }
+
+    /**
+     * Limits the number of violations which are kept for
+     * {@link #getViolations()}. Further violations are only counted. The
+     * default is 1000.
+     */
+    public synchronized OrderingVerifier setMaxStoredViolations(int maxStoredViolations) {
+        this.maxStoredViolations = maxStoredViolations;
+        return this;
+    }
+
+    @Override
+    public synchronized void verifyEvent(ReadContext event) {
+        eventCount++;
+        String key = readString(event, keyPath);
+        String rawValue = readString(event, valuePath);
+        if (key == null || rawValue == null) {
+            report(Violation.Kind.MISSING_FIELD, key, null, rawValue);
+            return;
+        }
+        long value;
+        try {
+            value = sequence ? Long.parseLong(rawValue) : parseTimestamp(rawValue);
+        } catch (NumberFormatException | DateTimeParseException | ArithmeticException e) {
+            report(Violation.Kind.MISSING_FIELD, key, null, rawValue);
+            return;
+        }
+        if (!watermarks.containsKey(key)) {
+            watermarks.put(key, value);
+            return;
+        }
+        long previous = watermarks.get(key, 0);
+        if (value < previous) {
+            report(Violation.Kind.OUT_OF_ORDER, key, format(previous), rawValue);
+            // keep the higher watermark, so one late event is reported only once.
+        } else if (sequence && value == previous) {
+            report(Violation.Kind.DUPLICATE, key, format(previous), rawValue);
+        } else {
+            if (sequence && value > previous + 1) {
+                report(Violation.Kind.GAP, key, format(previous), rawValue);
+            }
+            watermarks.put(key, value);
+        }
+    }
+
+    /**
+     * Returns the (first few) violations found so far.
+     */
+    public synchronized List<Violation> getViolations() {
+        return new ArrayList<>(violations);
+    }
+
+    /**
+     * Returns the number of all violations found so far, including those not
+     * stored.
+     */
+    public synchronized long getViolationCount() {
+        return violationCount;
+    }
+
+    /**
+     * Returns the number of events verified so far.
+     */
+    public synchronized long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Returns the number of distinct keys seen so far.
+     */
+    public synchronized int getKeyCount() {
+        return watermarks.size();
+    }
+
+    /**
+     * Forgets all watermarks and violations.
+     */
+    public synchronized void reset() {
+        watermarks.clear();
+        violations.clear();
+        violationCount = 0;
+        eventCount = 0;
+    }
+
+    private void report(Violation.Kind kind, String key, String previous, String actual) {
+        violationCount++;
+        if (violations.size() < maxStoredViolations) {
+            violations.add(new Violation(kind, key, previous, actual));
+        }
+    }
+
+    private static String readString(ReadContext event, JsonPath path) {
+        try {
+            return event.read(path, String.class);
+        } catch (PathNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static long parseTimestamp(String value) {
+        Instant instant = OffsetDateTime.parse(value).toInstant();
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000_000L), instant.getNano());
+    }
+
+    private String format(long value) {
+        if (sequence) {
+            return Long.toString(value);
+        }
+        return Instant.ofEpochSecond(0, value).toString();
+    }
+}
@@ -0,0 +1,93 @@
+package org.zalando.nakadi_mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The stored events of one partition of an event type, as raw JSON. Offsets
+ * count the events appended since the log was created, starting at 0.
+ * <p>
+ * Events which were committed by all subscriptions reading this partition
+ * are dropped, so memory depends on the number of uncommitted events.
+ * </p>
+ * <p>
+ * Thread safe. The readers are told about appended events after the log's
+ * own lock is released, so they may take their subscription's lock then.
+ * </p>
+ */
+class PartitionLog {
+    private final List<String> events = new ArrayList<>();
+    /** arrival time (epoch millis) of each event in events, at the same index. */
+    private long[] arrivalTimes = new long[16];
+    /** offset of events.get(0). */
+    private long firstOffset = 0;
+    private final List<SubscriptionImpl.PartitionState> readers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Appends events which arrived together, and wakes up the streams
+     * currently reading this partition.
+     */
+    void append(List<String> newEvents, long arrivalTime) {
+        synchronized (this) {
+            int size = events.size() + newEvents.size();
+            if (size > arrivalTimes.length) {
+                arrivalTimes = Arrays.copyOf(arrivalTimes, Math.max(size, arrivalTimes.length * 2));
+            }
+            Arrays.fill(arrivalTimes, events.size(), size, arrivalTime);
+            events.addAll(newEvents);
+        }
+        for (SubscriptionImpl.PartitionState reader : readers) {
+            reader.eventsAppended();
+        }
+    }
+
+    /**
+     * The offset the next appended event will get, i.e. the number of events
+     * ever appended.
+     */
+    synchronized long getNextOffset() {
+        return firstOffset + events.size();
+    }
+
+    /**
+     * Returns count events, starting at offset, or null if some of them were
+     * already dropped.
+     */
+    synchronized List<String> get(long offset, int count) {
+        if (offset < firstOffset) {
+            return null;
+        }
+        int from = (int) (offset - firstOffset);
+        return new ArrayList<>(events.subList(from, from + count));
+    }
+
+    /**
+     * The arrival time (epoch millis) of the event at this offset.
+     */
+    synchronized long getArrivalTime(long offset) {
+        return arrivalTimes[(int) (offset - firstOffset)];
+    }
+
+    void addReader(SubscriptionImpl.PartitionState reader) {
+        readers.add(reader);
+    }
+
+    /**
+     * Drops all events committed by every reader.
+     */
+    synchronized void trim() {
+        long keepFrom = getNextOffset();
+        for (SubscriptionImpl.PartitionState reader : readers) {
+            keepFrom = Math.min(keepFrom, reader.committed + 1);
+        }
+        int drop = (int) (keepFrom - firstOffset);
+        // only compact once a good part can be dropped, to keep it amortized O(1).
+        if (drop > 0 && drop * 2 >= events.size()) {
+            events.subList(0, drop).clear();
+            System.arraycopy(arrivalTimes, drop, arrivalTimes, 0, events.size());
+            firstOffset = keepFrom;
+        }
+    }
+}
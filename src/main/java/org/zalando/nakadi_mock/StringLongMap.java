@@ -0,0 +1,81 @@
+package org.zalando.nakadi_mock;
+
+/**
+ * A minimal hash map from strings to primitive longs, using open addressing
+ * with linear probing. This avoids one boxed Long and one map entry object
+ * per key, which matters when we keep state for many keys.
+ * <p>
+ * Not thread safe, null keys are not supported.
+ * </p>
+ */
+class StringLongMap {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private long[] values = new long[INITIAL_CAPACITY];
+    private int size = 0;
+
+    boolean containsKey(String key) {
+        return keys[indexOf(key, keys)] != null;
+    }
+
+    long get(String key, long defaultValue) {
+        int index = indexOf(key, keys);
+        return keys[index] != null ? values[index] : defaultValue;
+    }
+
+    void put(String key, long value) {
+        int index = indexOf(key, keys);
+        if (keys[index] == null) {
+            keys[index] = key;
+            size++;
+        }
+        values[index] = value;
+        if (size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        keys = new String[INITIAL_CAPACITY];
+        values = new long[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Returns the slot containing the key, or the empty slot where it would
+     * be inserted. The table is never more than half full, so this
+     * terminates.
+     */
+    private static int indexOf(String key, String[] table) {
+        int mask = table.length - 1;
+        int index = mix(key.hashCode()) & mask;
+        while (table[index] != null && !table[index].equals(key)) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void resize(int newCapacity) {
+        String[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new String[newCapacity];
+        values = new long[newCapacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int index = indexOf(oldKeys[i], keys);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.zalando.nakadi_mock;
+
+import com.jayway.jsonpath.ReadContext;
+
+/**
+ * A verification stage in the submission pipeline of an event type. Verifiers
+ * look at the raw JSON of each event as it arrives, independent of the type
+ * used by the submission callback, and don't influence the answer.
+ * <p>
+ * Only events of batches which were accepted by the callback (i.e. answered
+ * with 200) are passed to the verifiers, as otherwise retries of the producer
+ * would show up as duplicates.
+ * </p>
+ * <p>
+ * Verifiers can be called concurrently from several request threads.
+ * </p>
+ *
+ * @see OrderingVerifier
+ */
+public interface SubmissionVerifier {
+    /**
+     * Verify a single event.
+     *
+     * @param event the event, ready to be read with JsonPath expressions
+     *            relative to the event (e.g. {@code $.metadata.eid}).
+     */
+    void verifyEvent(ReadContext event);
+}
@@ -0,0 +1,701 @@
+package org.zalando.nakadi_mock;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.InvalidJsonException;
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.ParseContext;
+import com.jayway.jsonpath.PathNotFoundException;
+import com.jayway.jsonpath.ReadContext;
+import com.jayway.jsonpath.spi.json.JsonProvider;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.protocol.http.HttpServerConnection;
+import io.undertow.util.HttpString;
+
+import org.xnio.IoUtils;
+import org.xnio.conduits.ConduitStreamSourceChannel;
+
+/**
+ * A subscription, with the streams currently consuming it. Partitions are
+ * distributed evenly between the streams, and rebalanced whenever a stream
+ * connects or disconnects.
+ * <p>
+ * All state is guarded by the lock of the subscription. Each stream waits on
+ * a condition of its own, which is only signalled for changes concerning it:
+ * new events in or commits to one of its partitions, or a new assignment.
+ * </p>
+ */
+class SubscriptionImpl implements NakadiMock.Subscription {
+    private static final HttpString STREAM_ID_HEADER = new HttpString("X-Nakadi-StreamId");
+    private static final HttpString CONTENT_TYPE_HEADER = new HttpString("Content-Type");
+    private static final String BEGIN = "BEGIN";
+
+    /**
+     * The consumption state of one partition in this subscription.
+     */
+    class PartitionState {
+        final EventTypePartition partition;
+        final PartitionLog log;
+        /** offset of the last committed event, -1 if none. Also read by the log, when trimming. */
+        volatile long committed;
+        StreamSession owner;
+        /** the offset to send next to the owner. */
+        long nextToSend;
+
+        PartitionState(EventTypePartition partition, PartitionLog log) {
+            this.partition = partition;
+            this.log = log;
+            this.committed = log.getNextOffset() - 1;
+        }
+
+        /**
+         * Called by the log after new events were appended.
+         */
+        void eventsAppended() {
+            lock.lock();
+            try {
+                if (owner != null) {
+                    owner.wakeUp.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The parameters of a stream, from the query string.
+     */
+    private static class StreamParameters {
+        int batchLimit = 1;
+        long streamLimit = 0;
+        long batchFlushTimeoutSeconds = 30;
+        long streamTimeoutSeconds = 0;
+        long streamKeepAliveLimit = 0;
+        long maxUncommittedEvents = 10;
+    }
+
+    /**
+     * A batch reserved for a stream under the lock (its offsets are already
+     * counted as sent), which is rendered after unlocking. A keep-alive batch
+     * has no events.
+     */
+    private static class ReservedBatch {
+        final EventTypePartition partition;
+        final PartitionLog log;
+        final long firstOffset;
+        final int count;
+
+        ReservedBatch(PartitionState state, int count) {
+            this.partition = state.partition;
+            this.log = state.log;
+            this.firstOffset = state.nextToSend;
+            this.count = count;
+        }
+
+        long lastOffset() {
+            return firstOffset + count - 1;
+        }
+    }
+
+    /**
+     * One connected stream.
+     */
+    class StreamSession {
+        final String streamId = UUID.randomUUID().toString();
+        final StreamParameters parameters;
+        final List<PartitionState> assigned = new ArrayList<>();
+        /** signalled when there may be something new to send, or the stream was closed. */
+        final Condition wakeUp = lock.newCondition();
+        long sentEvents = 0;
+        /** whether the last batches sent were only keep-alive batches. */
+        boolean keepAlive = false;
+        boolean closed = false;
+
+        StreamSession(StreamParameters parameters) {
+            this.parameters = parameters;
+        }
+
+        long uncommittedEvents() {
+            long uncommitted = 0;
+            for (PartitionState state : assigned) {
+                uncommitted += state.nextToSend - 1 - state.committed;
+            }
+            return uncommitted;
+        }
+    }
+
+    private final String id;
+    private final List<String> eventTypes;
+    private final ReentrantLock lock = new ReentrantLock();
+    /** the time (epoch millis), for the consumer lag. */
+    private final LongSupplier clock;
+    private final List<PartitionState> partitions = new ArrayList<>();
+    /** the connected streams, in connection order. */
+    private final List<StreamSession> sessions = new ArrayList<>();
+
+    SubscriptionImpl(String id, Map<String, PartitionLog[]> logsByEventType, LongSupplier clock) {
+        this.id = id;
+        this.clock = clock;
+        this.eventTypes = Collections.unmodifiableList(new ArrayList<>(logsByEventType.keySet()));
+        logsByEventType.forEach((eventType, logs) -> {
+            for (int i = 0; i < logs.length; i++) {
+                PartitionState state = new PartitionState(new EventTypePartition(eventType, String.valueOf(i)),
+                        logs[i]);
+                partitions.add(state);
+                logs[i].addReader(state);
+            }
+        });
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public List<String> getEventTypes() {
+        return eventTypes;
+    }
+
+    @Override
+    public Map<String, List<EventTypePartition>> getAssignments() {
+        lock.lock();
+        try {
+            Map<String, List<EventTypePartition>> assignments = new LinkedHashMap<>();
+            for (StreamSession session : sessions) {
+                assignments.put(session.streamId, new ArrayList<>());
+            }
+            for (PartitionState state : partitions) {
+                if (state.owner != null) {
+                    assignments.get(state.owner.streamId).add(state.partition);
+                }
+            }
+            return assignments;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Handles {@code GET /subscriptions/{id}/events}. This blocks the calling
+     * thread for the whole duration of the stream, so it needs to run on a
+     * thread of its own.
+     */
+    void handleStream(HttpServerExchange exchange, JsonCodec codec) {
+        StreamParameters parameters;
+        try {
+            parameters = parseParameters(exchange.getQueryParameters());
+        } catch (NumberFormatException e) {
+            NakadiSubmissionAnswer.problem(400, "Bad Request", "Invalid stream parameter: " + e.getMessage())
+                    .send(exchange, codec);
+            return;
+        }
+        if (parameters.streamLimit != 0 && parameters.streamLimit < parameters.batchLimit) {
+            NakadiSubmissionAnswer.problem(422, "Unprocessable Entity", "stream_limit can't be lower than batch_limit")
+                    .send(exchange, codec);
+            return;
+        }
+        StreamSession session;
+        lock.lock();
+        try {
+            if (sessions.size() >= partitions.size()) {
+                NakadiSubmissionAnswer.problem(409, "Conflict",
+                        "No free slots for streaming available. Total slots: " + partitions.size())
+                        .send(exchange, codec);
+                return;
+            }
+            session = new StreamSession(parameters);
+            sessions.add(session);
+            rebalance();
+        } finally {
+            lock.unlock();
+        }
+        // hand the partitions over as soon as the client disconnects, not only when writing fails.
+        exchange.getConnection().addCloseListener(connection -> endSession(session));
+        watchForDisconnect(exchange);
+        try {
+            stream(exchange, session, codec);
+        } catch (IOException | InterruptedException e) {
+            // the client went away, or the mock is stopping.
+        } finally {
+            endSession(session);
+            exchange.endExchange();
+        }
+    }
+
+    /**
+     * Undertow doesn't read from an HTTP/1.1 connection while a request is
+     * handled, so it wouldn't notice the client closing it. Read (and discard) anything
+     * the client sends, and close the connection on end of stream. The
+     * connection is not reused after the stream, so nothing gets lost.
+     */
+    private static void watchForDisconnect(HttpServerExchange exchange) {
+        if (!(exchange.getConnection() instanceof HttpServerConnection)) {
+            return;
+        }
+        exchange.setPersistent(false);
+        HttpServerConnection connection = (HttpServerConnection) exchange.getConnection();
+        ConduitStreamSourceChannel channel = connection.getChannel().getSourceChannel();
+        channel.getReadSetter().set(source -> {
+            ByteBuffer buffer = ByteBuffer.allocate(256);
+            try {
+                int read;
+                do {
+                    buffer.clear();
+                    read = source.read(buffer);
+                } while (read > 0);
+                if (read < 0) {
+                    IoUtils.safeClose(connection);
+                }
+            } catch (IOException e) {
+                IoUtils.safeClose(connection);
+            }
+        });
+        channel.resumeReads();
+    }
+
+    private void stream(HttpServerExchange exchange, StreamSession session, JsonCodec codec)
+            throws IOException, InterruptedException {
+        exchange.setStatusCode(200);
+        exchange.getResponseHeaders().put(CONTENT_TYPE_HEADER, "application/x-json-stream");
+        exchange.getResponseHeaders().put(STREAM_ID_HEADER, session.streamId);
+        OutputStream out = exchange.getOutputStream();
+        out.flush();
+
+        StreamParameters parameters = session.parameters;
+        long streamStart = System.nanoTime();
+        long keepAlives = 0;
+        while (true) {
+            List<ReservedBatch> batches;
+            boolean keepAlive;
+            boolean limitReached;
+            lock.lock();
+            try {
+                batches = awaitBatches(session, streamStart);
+                if (batches == null) {
+                    return;
+                }
+                keepAlive = session.keepAlive;
+                limitReached = parameters.streamLimit > 0 && session.sentEvents >= parameters.streamLimit;
+            } finally {
+                lock.unlock();
+            }
+            for (ReservedBatch batch : batches) {
+                String json = batchJson(batch, codec);
+                if (json != null) {
+                    out.write(json.getBytes(StandardCharsets.UTF_8));
+                    out.write('\n');
+                }
+            }
+            out.flush();
+            keepAlives = keepAlive ? keepAlives + 1 : 0;
+            if (limitReached
+                    || (parameters.streamKeepAliveLimit > 0 && keepAlives >= parameters.streamKeepAliveLimit)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits until there are events to send (reserving their batches), or
+     * until the batch flush timeout (returning keep-alive batches). Returns
+     * null when the stream should end.
+     */
+    private List<ReservedBatch> awaitBatches(StreamSession session, long streamStart)
+            throws InterruptedException {
+        long streamTimeout = TimeUnit.SECONDS.toNanos(session.parameters.streamTimeoutSeconds);
+        long flushDeadline = System.nanoTime()
+                + TimeUnit.SECONDS.toNanos(session.parameters.batchFlushTimeoutSeconds);
+        while (true) {
+            long now = System.nanoTime();
+            if (session.closed || (streamTimeout > 0 && now - streamStart >= streamTimeout)) {
+                return null;
+            }
+            List<ReservedBatch> batches = takeBatches(session);
+            if (!batches.isEmpty()) {
+                session.keepAlive = false;
+                return batches;
+            }
+            long wait = flushDeadline - now;
+            if (streamTimeout > 0) {
+                wait = Math.min(wait, streamStart + streamTimeout - now);
+            }
+            if (wait <= 0) {
+                session.keepAlive = true;
+                return keepAliveBatches(session);
+            }
+            session.wakeUp.awaitNanos(wait);
+        }
+    }
+
+    private List<ReservedBatch> takeBatches(StreamSession session) {
+        StreamParameters parameters = session.parameters;
+        List<ReservedBatch> batches = new ArrayList<>();
+        long allowance = parameters.maxUncommittedEvents - session.uncommittedEvents();
+        for (PartitionState state : session.assigned) {
+            long count = Math.min(state.log.getNextOffset() - state.nextToSend, parameters.batchLimit);
+            count = Math.min(count, allowance);
+            if (parameters.streamLimit > 0) {
+                count = Math.min(count, parameters.streamLimit - session.sentEvents);
+            }
+            if (count <= 0) {
+                continue;
+            }
+            batches.add(new ReservedBatch(state, (int) count));
+            state.nextToSend += count;
+            session.sentEvents += count;
+            allowance -= count;
+        }
+        return batches;
+    }
+
+    private List<ReservedBatch> keepAliveBatches(StreamSession session) {
+        List<ReservedBatch> batches = new ArrayList<>();
+        for (PartitionState state : session.assigned) {
+            batches.add(new ReservedBatch(state, 0));
+        }
+        return batches;
+    }
+
+    /**
+     * Renders a reserved batch, without holding the lock. Returns null if its
+     * events were dropped in the meantime, which only happens when the
+     * partition was moved to another stream that already committed them.
+     */
+    private static String batchJson(ReservedBatch batch, JsonCodec codec) {
+        String events = null;
+        if (batch.count > 0) {
+            List<String> stored = batch.log.get(batch.firstOffset, batch.count);
+            if (stored == null) {
+                return null;
+            }
+            events = String.join(",", stored);
+        }
+        String cursor = codec.encode(cursor(batch.partition, batch.lastOffset(), cursorToken()));
+        if (events == null) {
+            return "{\"cursor\":" + cursor + "}";
+        }
+        return "{\"cursor\":" + cursor + ",\"events\":[" + events + "]}";
+    }
+
+    /**
+     * Handles {@code GET /subscriptions/{id}/stats}. The numbers are computed
+     * from the head offset and committed cursor of each partition, so this
+     * takes constant time per partition, independent of the number of stored
+     * events.
+     */
+    NakadiSubmissionAnswer getStats(boolean showTimeLag) {
+        long now = clock.getAsLong();
+        Map<String, List<Map<String, Object>>> partitionsByEventType = new LinkedHashMap<>();
+        for (String eventType : eventTypes) {
+            partitionsByEventType.put(eventType, new ArrayList<>());
+        }
+        lock.lock();
+        try {
+            for (PartitionState state : partitions) {
+                long unconsumed = state.log.getNextOffset() - (state.committed + 1);
+                Map<String, Object> stats = new LinkedHashMap<>();
+                stats.put("partition", state.partition.getPartition());
+                stats.put("state", state.owner != null ? "assigned" : "unassigned");
+                stats.put("unconsumed_events", unconsumed);
+                if (showTimeLag) {
+                    long lagMillis = unconsumed > 0 ? now - state.log.getArrivalTime(state.committed + 1) : 0;
+                    stats.put("consumer_lag_seconds", TimeUnit.MILLISECONDS.toSeconds(Math.max(0, lagMillis)));
+                }
+                if (state.owner != null) {
+                    stats.put("stream_id", state.owner.streamId);
+                    stats.put("assignment_type", "auto");
+                }
+                partitionsByEventType.get(state.partition.getEventType()).add(stats);
+            }
+        } finally {
+            lock.unlock();
+        }
+        List<Map<String, Object>> items = new ArrayList<>();
+        partitionsByEventType.forEach((eventType, partitionStats) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("event_type", eventType);
+            item.put("partitions", partitionStats);
+            items.add(item);
+        });
+        return NakadiSubmissionAnswer.json(200, Collections.singletonMap("items", items));
+    }
+
+    /**
+     * Handles {@code GET /subscriptions/{id}/cursors}.
+     */
+    NakadiSubmissionAnswer getCursors() {
+        List<Map<String, String>> items = new ArrayList<>();
+        lock.lock();
+        try {
+            for (PartitionState state : partitions) {
+                items.add(cursor(state.partition, state.committed, cursorToken()));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return NakadiSubmissionAnswer.json(200, Collections.singletonMap("items", items));
+    }
+
+    /**
+     * Handles {@code POST /subscriptions/{id}/cursors}. A cursor commits all
+     * events up to and including its offset. Only the stream which currently
+     * owns a partition may commit for it, and only events already sent to it.
+     */
+    NakadiSubmissionAnswer commitCursors(String streamId, String requestContent, JsonCodec codec) {
+        List<Map<String, String>> cursors;
+        try {
+            cursors = readCursors(requestContent, codec);
+        } catch (InvalidJsonException | PathNotFoundException | ClassCastException e) {
+            return NakadiSubmissionAnswer.problem(422, "Unprocessable Entity", "Invalid cursors.");
+        }
+        lock.lock();
+        try {
+            StreamSession session = findSession(streamId);
+            if (session == null) {
+                return NakadiSubmissionAnswer.problem(422, "Unprocessable Entity",
+                        "Session with stream id " + streamId + " not found");
+            }
+            List<PartitionState> states = new ArrayList<>();
+            List<Long> offsets = new ArrayList<>();
+            for (Map<String, String> cursor : cursors) {
+                PartitionState state = findPartition(cursor.get("event_type"), cursor.get("partition"));
+                Long offset = parseOffset(cursor.get("offset"));
+                if (state == null || offset == null || offset >= state.log.getNextOffset()) {
+                    return NakadiSubmissionAnswer.problem(422, "Unprocessable Entity", "Invalid cursor " + cursor);
+                }
+                if (state.owner != session) {
+                    return NakadiSubmissionAnswer.problem(422, "Unprocessable Entity", "Cursor " + cursor
+                            + " is for a partition which is not assigned to stream " + streamId);
+                }
+                if (offset >= state.nextToSend) {
+                    return NakadiSubmissionAnswer.problem(422, "Unprocessable Entity", "Cursor " + cursor
+                            + " is beyond the last event sent to stream " + streamId);
+                }
+                states.add(state);
+                offsets.add(offset);
+            }
+            List<Map<String, Object>> results = new ArrayList<>();
+            boolean allCommitted = true;
+            for (int i = 0; i < states.size(); i++) {
+                PartitionState state = states.get(i);
+                boolean committed = offsets.get(i) > state.committed;
+                if (committed) {
+                    state.committed = offsets.get(i);
+                    state.log.trim();
+                }
+                allCommitted &= committed;
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("cursor", cursors.get(i));
+                result.put("result", committed ? "committed" : "outdated");
+                results.add(result);
+            }
+            // the committing stream may have been waiting for max_uncommitted_events.
+            session.wakeUp.signal();
+            return allCommitted ? NakadiSubmissionAnswer.noContent()
+                    : NakadiSubmissionAnswer.json(200, Collections.singletonMap("items", results));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static List<Map<String, String>> readCursors(String requestContent, JsonCodec codec) {
+        DocumentContext document = JsonPath.parse(requestContent, codec.jsonPathConfiguration());
+        JsonProvider provider = codec.jsonPathConfiguration().jsonProvider();
+        ParseContext parseContext = JsonPath.using(codec.jsonPathConfiguration());
+        Object items = document.read("$.items");
+        List<Map<String, String>> cursors = new ArrayList<>();
+        for (int i = 0; i < provider.length(items); i++) {
+            ReadContext item = parseContext.parse(provider.getArrayIndex(items, i));
+            Map<String, String> cursor = new LinkedHashMap<>();
+            for (String field : new String[] { "event_type", "partition", "offset", "cursor_token" }) {
+                cursor.put(field, item.read("$." + field, String.class));
+            }
+            cursors.add(cursor);
+        }
+        return cursors;
+    }
+
+    /**
+     * Ends all streams, e.g. when the mock is stopped.
+     */
+    void closeAllStreams() {
+        lock.lock();
+        try {
+            for (StreamSession session : new ArrayList<>(sessions)) {
+                closeSession(session);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the session (if still open) and gives its partitions to the
+     * other streams.
+     */
+    private void endSession(StreamSession session) {
+        lock.lock();
+        try {
+            if (!session.closed) {
+                closeSession(session);
+                rebalance();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeSession(StreamSession session) {
+        session.closed = true;
+        session.wakeUp.signal();
+        for (PartitionState state : session.assigned) {
+            state.owner = null;
+        }
+        session.assigned.clear();
+        sessions.remove(session);
+    }
+
+    /**
+     * Distributes the partitions evenly between the streams: each gets
+     * partitions/streams of them, and the first partitions%streams streams
+     * (preferring those which already have more) get one more. Streams keep
+     * as many of their current partitions as possible, so a stream
+     * connecting or disconnecting moves only as few partitions as needed.
+     * Only the streams which get new partitions are woken up.
+     */
+    private void rebalance() {
+        if (sessions.isEmpty()) {
+            return;
+        }
+        int base = partitions.size() / sessions.size();
+        int extra = partitions.size() % sessions.size();
+        List<StreamSession> order = new ArrayList<>(sessions);
+        order.sort(Comparator.comparingInt((StreamSession session) -> session.assigned.size()).reversed());
+        Map<StreamSession, Integer> quotas = new LinkedHashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            StreamSession session = order.get(i);
+            int quota = base + (i < extra ? 1 : 0);
+            quotas.put(session, quota);
+            while (session.assigned.size() > quota) {
+                session.assigned.remove(session.assigned.size() - 1).owner = null;
+            }
+        }
+        Deque<PartitionState> free = new ArrayDeque<>();
+        for (PartitionState state : partitions) {
+            if (state.owner == null) {
+                free.add(state);
+            }
+        }
+        quotas.forEach((session, quota) -> {
+            while (session.assigned.size() < quota) {
+                PartitionState state = free.poll();
+                state.owner = session;
+                state.nextToSend = state.committed + 1;
+                session.assigned.add(state);
+                session.wakeUp.signal();
+            }
+        });
+    }
+
+    private StreamSession findSession(String streamId) {
+        for (StreamSession session : sessions) {
+            if (session.streamId.equals(streamId)) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    private PartitionState findPartition(String eventType, String partition) {
+        for (PartitionState state : partitions) {
+            if (state.partition.getEventType().equals(eventType) && state.partition.getPartition().equals(partition)) {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    private static StreamParameters parseParameters(Map<String, Deque<String>> query) {
+        StreamParameters parameters = new StreamParameters();
+        parameters.batchLimit = (int) longParameter(query, "batch_limit", parameters.batchLimit);
+        parameters.streamLimit = longParameter(query, "stream_limit", parameters.streamLimit);
+        parameters.batchFlushTimeoutSeconds = longParameter(query, "batch_flush_timeout",
+                parameters.batchFlushTimeoutSeconds);
+        parameters.streamTimeoutSeconds = longParameter(query, "stream_timeout", parameters.streamTimeoutSeconds);
+        parameters.streamKeepAliveLimit = longParameter(query, "stream_keep_alive_limit",
+                parameters.streamKeepAliveLimit);
+        parameters.maxUncommittedEvents = longParameter(query, "max_uncommitted_events",
+                parameters.maxUncommittedEvents);
+        return parameters;
+    }
+
+    private static long longParameter(Map<String, Deque<String>> query, String name, long defaultValue) {
+        Deque<String> values = query.get(name);
+        if (values == null || values.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(values.getFirst());
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException(name);
+        }
+    }
+
+    private static Map<String, String> cursor(EventTypePartition partition, long offset, String token) {
+        Map<String, String> cursor = new LinkedHashMap<>();
+        cursor.put("partition", partition.getPartition());
+        cursor.put("offset", formatOffset(offset));
+        cursor.put("event_type", partition.getEventType());
+        cursor.put("cursor_token", token);
+        return cursor;
+    }
+
+    /**
+     * Cursor tokens only need to be unique, so they come from a thread local
+     * random instead of the shared (and synchronized) secure random of
+     * {@link UUID#randomUUID()}.
+     */
+    private static String cursorToken() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    /**
+     * Offsets are zero-padded, so they compare correctly as strings.
+     */
+    private static String formatOffset(long offset) {
+        return offset < 0 ? BEGIN : String.format("%018d", offset);
+    }
+
+    private static Long parseOffset(String offset) {
+        if (BEGIN.equals(offset)) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(offset);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -11,10 +11,16 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 import com.jayway.jsonpath.TypeRef;
@@ -235,6 +241,573 @@ public class NakadiMockTest {
         mock.stop();
     }
 
+    @Test
+    public void testSubmissionWithinLimits() throws IOException {
+        String eventType = "example-event";
+        NakadiMock.EventType type = mock.eventType(eventType);
+        type.setMaxRequestSize(1000);
+        type.setMaxBatchSize(2);
+        mock.start();
+
+        String events = "[{'bla':'blub'}, {'egal':'wie'}]".replace('\'', '"');
+        HttpURLConnection connection = submitEventsAndReturnConnection(submissionUrl(eventType), events);
+        assertThat(connection.getResponseCode(), is(200));
+    }
+
+    @Test
+    public void testNonAsciiSubmissionDecodedAsUtf8WithAndWithoutSizeLimit() throws IOException {
+        CollectingCallback<Map<String, String>> unlimited = new CollectingCallback<Map<String, String>>() {};
+        CollectingCallback<Map<String, String>> limited = new CollectingCallback<Map<String, String>>() {};
+        mock.eventType("unlimited-event").setSubmissionCallback(unlimited);
+        NakadiMock.EventType limitedType = mock.eventType("limited-event");
+        limitedType.setSubmissionCallback(limited);
+        limitedType.setMaxRequestSize(1000);
+        mock.start();
+
+        String text = "Gr\u00fc\u00dfe \u20ac \ud83d\ude00";
+        String events = "[{'bla':'" + text + "'}]";
+        postDataToUrl(events.replace('\'', '"'), submissionUrl("unlimited-event"));
+        postDataToUrl(events.replace('\'', '"'), submissionUrl("limited-event"));
+
+        assertThat(unlimited.getSubmittedEvents(), contains(hasEntry("bla", text)));
+        assertThat(limited.getSubmittedEvents(), contains(hasEntry("bla", text)));
+    }
+
+    @Test
+    public void testSubmissionTooLargeByContentLength() throws IOException {
+        String eventType = "example-event";
+        mock.eventType(eventType).setMaxRequestSize(20);
+        mock.start();
+
+        String events = "[{'bla':'blub'}, {'egal':'wie'}]".replace('\'', '"');
+        HttpURLConnection connection = submitEventsAndReturnConnection(submissionUrl(eventType), events);
+        assertThat(connection.getResponseCode(), is(413));
+        DocumentContext document = JsonPath.parse(connection.getErrorStream());
+        assertThat(document.read("$.status"), is(413));
+    }
+
+    @Test
+    public void testSubmissionTooLargeWhileStreaming() throws IOException {
+        String eventType = "example-event";
+        CollectingCallback<Map<String, String>> collector = new CollectingCallback<Map<String, String>>() {};
+        NakadiMock.EventType type = mock.eventType(eventType);
+        type.setSubmissionCallback(collector);
+        type.setMaxRequestSize(20);
+        mock.start();
+
+        String events = "[{'bla':'blub'}, {'egal':'wie'}]".replace('\'', '"');
+        HttpURLConnection connection = (HttpURLConnection) submissionUrl(eventType).openConnection();
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(8);
+        connection.setRequestProperty("Content-Type", "application/json");
+        PrintStream out = new PrintStream(connection.getOutputStream(), true, "UTF-8");
+        out.print(events);
+        out.close();
+        assertThat(connection.getResponseCode(), is(413));
+        assertThat(collector.getSubmittedBatches(), is(empty()));
+    }
+
+    @Test
+    public void testSubmissionWithTooManyEvents() throws IOException {
+        String eventType = "example-event";
+        CollectingCallback<Map<String, String>> collector = new CollectingCallback<Map<String, String>>() {};
+        NakadiMock.EventType type = mock.eventType(eventType);
+        type.setSubmissionCallback(collector);
+        type.setMaxBatchSize(1);
+        mock.start();
+
+        String events = "[{'bla':'blub'}, {'egal':'wie'}]".replace('\'', '"');
+        HttpURLConnection connection = submitEventsAndReturnConnection(submissionUrl(eventType), events);
+        assertThat(connection.getResponseCode(), is(422));
+        assertThat(collector.getSubmittedBatches(), is(empty()));
+    }
+
+    @Test
+    public void testOrderingVerifierBySequence() throws IOException {
+        String eventType = "example-event";
+        OrderingVerifier verifier = OrderingVerifier.bySequence("$.key", "$.seq");
+        mock.eventType(eventType).addVerifier(verifier);
+        mock.start();
+
+        postDataToUrl("[{'key':'a','seq':1}, {'key':'b','seq':7}, {'key':'a','seq':2}]".replace('\'', '"'),
+                submissionUrl(eventType));
+        assertThat(verifier.getViolations(), is(empty()));
+
+        postDataToUrl("[{'key':'a','seq':4}, {'key':'b','seq':6}, {'key':'b','seq':7}, {'seq':8}]"
+                .replace('\'', '"'), submissionUrl(eventType));
+
+        List<OrderingVerifier.Violation> violations = verifier.getViolations();
+        assertThat(violations, hasSize(4));
+        assertThat(violations.get(0).getKind(), is(OrderingVerifier.Violation.Kind.GAP));
+        assertThat(violations.get(0).getPrevious(), is("2"));
+        assertThat(violations.get(0).getActual(), is("4"));
+        assertThat(violations.get(1).getKind(), is(OrderingVerifier.Violation.Kind.OUT_OF_ORDER));
+        assertThat(violations.get(1).getKey(), is("b"));
+        assertThat(violations.get(2).getKind(), is(OrderingVerifier.Violation.Kind.DUPLICATE));
+        assertThat(violations.get(3).getKind(), is(OrderingVerifier.Violation.Kind.MISSING_FIELD));
+        assertThat(verifier.getKeyCount(), is(2));
+        assertThat(verifier.getEventCount(), is(7L));
+    }
+
+    @Test
+    public void testOrderingVerifierByTimestamp() throws IOException {
+        String eventType = "example-event";
+        OrderingVerifier verifier = OrderingVerifier.byTimestamp("$.key", "$.metadata.occurred_at");
+        mock.eventType(eventType).addVerifier(verifier);
+        mock.start();
+
+        String events = ("[{'key':'a','metadata':{'occurred_at':'2019-01-01T10:00:00.000001Z'}},"
+                + " {'key':'a','metadata':{'occurred_at':'2019-01-01T11:00:00+01:00'}},"
+                + " {'key':'a','metadata':{'occurred_at':'2019-01-01T10:00:01Z'}}]").replace('\'', '"');
+        postDataToUrl(events, submissionUrl(eventType));
+
+        List<OrderingVerifier.Violation> violations = verifier.getViolations();
+        assertThat(violations, hasSize(1));
+        assertThat(violations.get(0).getKind(), is(OrderingVerifier.Violation.Kind.OUT_OF_ORDER));
+        assertThat(violations.get(0).getActual(), is("2019-01-01T11:00:00+01:00"));
+    }
+
+    @Test
+    public void testVerifierIgnoresRejectedBatches() throws IOException {
+        String eventType = "example-event";
+        OrderingVerifier verifier = OrderingVerifier.bySequence("$.key", "$.seq");
+        NakadiMock.EventType type = mock.eventType(eventType);
+        type.setSubmissionCallback(Object.class, batch -> NakadiSubmissionAnswer.accessForbidden());
+        type.addVerifier(verifier);
+        mock.start();
+
+        HttpURLConnection connection = submitEventsAndReturnConnection(submissionUrl(eventType),
+                "[{'key':'a','seq':1}]".replace('\'', '"'));
+        assertThat(connection.getResponseCode(), is(403));
+        assertThat(verifier.getEventCount(), is(0L));
+    }
+
+    @Test
+    public void testCoalescingCallbackCombinesRequests() throws Exception {
+        String eventType = "example-event";
+        List<List<ExampleEvent>> batches = new CopyOnWriteArrayList<>();
+        CoalescingCallback<ExampleEvent> callback = CoalescingCallback.of(ExampleEvent.class, batches::add)
+                .flushAt(4)
+                .flushAfter(1, TimeUnit.HOURS);
+        mock.eventType(eventType).setCoalescingCallback(callback);
+        mock.start();
+
+        for (int i = 0; i < 5; i++) {
+            String events = "[{'bla':'a" + i + "'}, {'bla':'b" + i + "'}]";
+            postDataToUrl(events.replace('\'', '"'), submissionUrl(eventType));
+        }
+        callback.flush();
+
+        List<String> blas = batches.stream().flatMap(List::stream).map(event -> event.bla)
+                .collect(Collectors.toList());
+        assertThat(blas, contains("a0", "b0", "a1", "b1", "a2", "b2", "a3", "b3", "a4", "b4"));
+        assertThat(batches.get(0), hasSize(4));
+        assertThat(batches, hasSize(3));
+    }
+
+    @Test
+    public void testCoalescingCallbackAnswerPolicy() throws Exception {
+        String eventType = "example-event";
+        List<ExampleEvent> received = new CopyOnWriteArrayList<>();
+        CoalescingCallback<ExampleEvent> callback = CoalescingCallback.of(ExampleEvent.class, received::addAll)
+                .answeringWith(NakadiSubmissionAnswer::accessForbidden);
+        mock.eventType(eventType).setCoalescingCallback(callback);
+        mock.start();
+
+        HttpURLConnection connection = submitEventsAndReturnConnection(submissionUrl(eventType),
+                "[{'bla':'blub'}]".replace('\'', '"'));
+        assertThat(connection.getResponseCode(), is(403));
+        callback.flush();
+        assertThat(received, is(empty()));
+    }
+
+    @Test
+    public void testCoalescingCallbackRejectsWhenTooManyEventsPending() throws Exception {
+        String eventType = "example-event";
+        CountDownLatch release = new CountDownLatch(1);
+        List<ExampleEvent> received = new CopyOnWriteArrayList<>();
+        CoalescingCallback<ExampleEvent> callback = CoalescingCallback.of(ExampleEvent.class,
+                (List<ExampleEvent> batch) -> {
+                    awaitUninterruptibly(release);
+                    received.addAll(batch);
+                })
+                .flushAt(1)
+                .maxPendingEvents(3);
+        mock.eventType(eventType).setCoalescingCallback(callback);
+        mock.start();
+
+        String twoEvents = "[{'bla':'a'}, {'bla':'b'}]".replace('\'', '"');
+        assertThat(submitEventsAndReturnConnection(submissionUrl(eventType), twoEvents).getResponseCode(), is(200));
+        HttpURLConnection rejected = submitEventsAndReturnConnection(submissionUrl(eventType), twoEvents);
+        assertThat(rejected.getResponseCode(), is(429));
+
+        release.countDown();
+        callback.flush();
+        assertThat(received, hasSize(2));
+        assertThat(submitEventsAndReturnConnection(submissionUrl(eventType), twoEvents).getResponseCode(), is(200));
+    }
+
+    @Test
+    public void testCoalescingCallbackDropsOnlyUnmappableRequest() throws Exception {
+        String eventType = "example-event";
+        List<ExampleEvent> received = new CopyOnWriteArrayList<>();
+        CoalescingCallback<ExampleEvent> callback = CoalescingCallback.of(ExampleEvent.class, received::addAll)
+                .flushAt(10)
+                .flushAfter(1, TimeUnit.HOURS);
+        mock.eventType(eventType).setCoalescingCallback(callback);
+        mock.start();
+
+        postDataToUrl("[{'bla':'a'}]".replace('\'', '"'), submissionUrl(eventType));
+        postDataToUrl("[{'bla':{'not':'a string'}}]".replace('\'', '"'), submissionUrl(eventType));
+        postDataToUrl("[{'bla':'b'}]".replace('\'', '"'), submissionUrl(eventType));
+        try {
+            callback.flush();
+            fail();
+        } catch (IllegalStateException e) {
+            // the mapping failure of the second request.
+        }
+        assertThat(received.stream().map(event -> event.bla).collect(Collectors.toList()), contains("a", "b"));
+    }
+
+    @Test
+    public void testCoalescingCallbackSurvivesErrorInConsumer() throws Exception {
+        String eventType = "example-event";
+        List<ExampleEvent> received = new CopyOnWriteArrayList<>();
+        CoalescingCallback<ExampleEvent> callback = CoalescingCallback.of(ExampleEvent.class,
+                (List<ExampleEvent> batch) -> {
+                    assertThat(batch.get(0).bla, is(not("fail")));
+                    received.addAll(batch);
+                })
+                .flushAfter(1, TimeUnit.HOURS);
+        mock.eventType(eventType).setCoalescingCallback(callback);
+        mock.start();
+
+        postDataToUrl("[{'bla':'fail'}]".replace('\'', '"'), submissionUrl(eventType));
+        try {
+            callback.flush();
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(e.getCause(), instanceOf(AssertionError.class));
+        }
+
+        postDataToUrl("[{'bla':'ok'}]".replace('\'', '"'), submissionUrl(eventType));
+        callback.flush();
+        assertThat(received, hasSize(1));
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testCoalescingCallbackDeliversOnStop() throws IOException {
+        String eventType = "example-event";
+        List<ExampleEvent> received = new CopyOnWriteArrayList<>();
+        CoalescingCallback<ExampleEvent> callback = CoalescingCallback.of(ExampleEvent.class, received::addAll)
+                .flushAfter(1, TimeUnit.HOURS);
+        mock.eventType(eventType).setCoalescingCallback(callback);
+        mock.start();
+
+        postDataToUrl("[{'bla':'blub'}, {'egal':'wie'}]".replace('\'', '"'), submissionUrl(eventType));
+        mock.stop();
+        assertThat(received, hasSize(2));
+    }
+
+    @Test
+    public void testSubmissionWithJacksonCodec() throws IOException {
+        String eventType = "example-event";
+        CollectingCallback<JacksonExampleEvent> collector = new CollectingCallback<JacksonExampleEvent>() {};
+        mock.setJsonCodec(new JacksonJsonCodec());
+        mock.eventType(eventType).setSubmissionCallback(collector);
+        mock.start();
+
+        String events = "[{'the_bla':'blub', 'unknown':'x'}, {'the_bla':'wie'}]".replace('\'', '"');
+        postDataToUrl(events, submissionUrl(eventType));
+
+        List<String> blas = collector.getSubmittedEvents().stream().map(event -> event.bla)
+                .collect(Collectors.toList());
+        assertThat(blas, contains("blub", "wie"));
+    }
+
+    @Test
+    public void testBatchItemResponseIsEscapedWithJacksonCodec() throws IOException {
+        String eventType = "example-event";
+        mock.setJsonCodec(new JacksonJsonCodec());
+        mock.eventType(eventType).setSubmissionCallback(Object.class,
+                batch -> NakadiSubmissionAnswer.partialValidation(Arrays.asList(
+                        new BatchItemResponse(null, PublishingStatus.ABORTED, null, null),
+                        new BatchItemResponse("124", PublishingStatus.FAILED, PublishingProcessStep.VALIDATING,
+                                "Missing \"bla\""))));
+        mock.start();
+
+        HttpURLConnection connection = submitEventsAndReturnConnection(submissionUrl(eventType), "[{}, {}]");
+        assertThat(connection.getResponseCode(), is(422));
+        DocumentContext document = JsonPath.parse(connection.getErrorStream());
+        assertThat(document.read("$[0]"), not(hasKey("eid")));
+        assertThat(document.read("$[0].publishing_status"), is("aborted"));
+        assertThat(document.read("$[1].detail"), is("Missing \"bla\""));
+    }
+
+    @Test
+    public void testStreamingDeliversEventsAndCommits() throws IOException {
+        String eventType = "example-event";
+        mock.eventType(eventType);
+        mock.subscription("sub", eventType);
+        mock.start();
+
+        HttpURLConnection stream = openStream("sub", "batch_limit=10&max_uncommitted_events=100");
+        assertThat(stream.getResponseCode(), is(200));
+        String streamId = stream.getHeaderField("X-Nakadi-StreamId");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream.getInputStream(), StandardCharsets.UTF_8));
+
+        postDataToUrl("[{'bla':'1'}, {'bla':'2'}, {'bla':'3'}]".replace('\'', '"'), submissionUrl(eventType));
+
+        DocumentContext batch = JsonPath.parse(reader.readLine());
+        assertThat(batch.read("$.events[*].bla"), contains("1", "2", "3"));
+        assertThat(batch.read("$.cursor.event_type"), is(eventType));
+        assertThat(batch.read("$.cursor.partition"), is("0"));
+        String cursor = "{\"items\": [" + JsonPath.parse((Object) batch.read("$.cursor")).jsonString() + "]}";
+
+        HttpURLConnection commit = commitCursors("sub", streamId, cursor);
+        assertThat(commit.getResponseCode(), is(204));
+
+        HttpURLConnection secondCommit = commitCursors("sub", streamId, cursor);
+        assertThat(secondCommit.getResponseCode(), is(200));
+        DocumentContext result = JsonPath.parse(secondCommit.getInputStream());
+        assertThat(result.read("$.items[0].result"), is("outdated"));
+
+        stream.disconnect();
+    }
+
+    @Test
+    public void testStreamingRebalancesPartitions() throws Exception {
+        String eventType = "example-event";
+        mock.eventType(eventType).setPartitionCount(4);
+        NakadiMock.Subscription subscription = mock.subscription("sub", eventType);
+        mock.start();
+
+        HttpURLConnection first = openStream("sub", "");
+        assertThat(first.getResponseCode(), is(200));
+        assertThat(partitionCounts(subscription), contains(4));
+
+        HttpURLConnection second = openStream("sub", "");
+        assertThat(second.getResponseCode(), is(200));
+        assertThat(partitionCounts(subscription), contains(2, 2));
+
+        HttpURLConnection third = openStream("sub", "");
+        assertThat(third.getResponseCode(), is(200));
+        assertThat(partitionCounts(subscription), containsInAnyOrder(2, 1, 1));
+        assertThat(subscription.getAssignments().get(first.getHeaderField("X-Nakadi-StreamId")), hasSize(2));
+
+        // the disconnect is noticed right away, not only with the next (keep-alive) batch.
+        second.getInputStream().close();
+        second.disconnect();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (subscription.getAssignments().size() > 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(partitionCounts(subscription), contains(2, 2));
+
+        first.disconnect();
+        third.disconnect();
+    }
+
+    @Test
+    public void testCommitAfterRebalanceOnlyForOwnPartitions() throws IOException {
+        String eventType = "example-event";
+        mock.eventType(eventType).setPartitionCount(2);
+        NakadiMock.Subscription subscription = mock.subscription("sub", eventType);
+        mock.start();
+
+        HttpURLConnection first = openStream("sub", "");
+        assertThat(first.getResponseCode(), is(200));
+        String streamId = first.getHeaderField("X-Nakadi-StreamId");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(first.getInputStream(), StandardCharsets.UTF_8));
+
+        postDataToUrl("[{'bla':'1'}, {'bla':'2'}]".replace('\'', '"'), submissionUrl(eventType));
+        Map<String, String> cursorsByPartition = new HashMap<>();
+        for (int i = 0; i < 2; i++) {
+            DocumentContext batch = JsonPath.parse(reader.readLine());
+            cursorsByPartition.put(batch.read("$.cursor.partition"),
+                    "{\"items\": [" + JsonPath.parse((Object) batch.read("$.cursor")).jsonString() + "]}");
+        }
+
+        HttpURLConnection second = openStream("sub", "");
+        assertThat(second.getResponseCode(), is(200));
+        List<EventTypePartition> kept = subscription.getAssignments().get(streamId);
+        assertThat(kept, hasSize(1));
+        String keptPartition = kept.get(0).getPartition();
+        String movedPartition = keptPartition.equals("0") ? "1" : "0";
+
+        assertThat(commitCursors("sub", streamId, cursorsByPartition.get(movedPartition)).getResponseCode(), is(422));
+        assertThat(commitCursors("sub", streamId, cursorsByPartition.get(keptPartition)).getResponseCode(), is(204));
+
+        first.disconnect();
+        second.disconnect();
+    }
+
+    @Test
+    public void testCommitBeyondSentEventsGives422() throws IOException {
+        String eventType = "example-event";
+        mock.eventType(eventType);
+        mock.subscription("sub", eventType);
+        mock.start();
+
+        HttpURLConnection stream = openStream("sub", "max_uncommitted_events=1");
+        assertThat(stream.getResponseCode(), is(200));
+        String streamId = stream.getHeaderField("X-Nakadi-StreamId");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream.getInputStream(), StandardCharsets.UTF_8));
+
+        postDataToUrl("[{'bla':'1'}, {'bla':'2'}, {'bla':'3'}, {'bla':'4'}]".replace('\'', '"'), submissionUrl(eventType));
+        DocumentContext batch = JsonPath.parse(reader.readLine());
+        assertThat(batch.read("$.events[*].bla"), contains("1"));
+        DocumentContext cursor = JsonPath.parse((Object) batch.read("$.cursor"));
+        String sentCursor = "{\"items\": [" + cursor.jsonString() + "]}";
+        String unsentCursor = "{\"items\": [" + cursor.set("$.offset", String.format("%018d", 3)).jsonString() + "]}";
+
+        assertThat(commitCursors("sub", streamId, unsentCursor).getResponseCode(), is(422));
+        assertThat(commitCursors("sub", streamId, sentCursor).getResponseCode(), is(204));
+
+        batch = JsonPath.parse(reader.readLine());
+        assertThat(batch.read("$.events[*].bla"), contains("2"));
+        stream.disconnect();
+    }
+
+    @Test
+    public void testStreamingWithoutFreeSlotsGives409() throws IOException {
+        String eventType = "example-event";
+        mock.eventType(eventType);
+        mock.subscription("sub", eventType);
+        mock.start();
+
+        HttpURLConnection first = openStream("sub", "");
+        assertThat(first.getResponseCode(), is(200));
+        HttpURLConnection second = openStream("sub", "");
+        assertThat(second.getResponseCode(), is(409));
+        first.disconnect();
+    }
+
+    @Test
+    public void testSubscriptionStats() throws IOException {
+        String eventType = "example-event";
+        mock.eventType(eventType).setPartitionCount(2);
+        mock.subscription("sub", eventType);
+        mock.start();
+
+        postDataToUrl("[{'bla':'1'}, {'bla':'2'}, {'bla':'3'}, {'bla':'4'}, {'bla':'5'}]".replace('\'', '"'),
+                submissionUrl(eventType));
+
+        DocumentContext stats = readStats("sub", "?show_time_lag=true");
+        assertThat(stats.read("$.items[0].event_type"), is(eventType));
+        assertThat(stats.read("$.items[0].partitions[*].unconsumed_events"), contains(3, 2));
+        assertThat(stats.read("$.items[0].partitions[*].state"), contains("unassigned", "unassigned"));
+        assertThat(stats.read("$.items[0].partitions[*].consumer_lag_seconds"), contains(0, 0));
+
+        HttpURLConnection stream = openStream("sub", "batch_limit=10&max_uncommitted_events=100");
+        String streamId = stream.getHeaderField("X-Nakadi-StreamId");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream.getInputStream(), StandardCharsets.UTF_8));
+        DocumentContext batch = JsonPath.parse(reader.readLine());
+        String cursor = "{\"items\": [" + JsonPath.parse((Object) batch.read("$.cursor")).jsonString() + "]}";
+        assertThat(commitCursors("sub", streamId, cursor).getResponseCode(), is(204));
+
+        stats = readStats("sub", "");
+        List<Integer> unconsumed = stats.read("$.items[0].partitions[*].unconsumed_events");
+        assertThat(unconsumed, containsInAnyOrder(0, batch.read("$.cursor.partition").equals("0") ? 2 : 3));
+        assertThat(stats.read("$.items[0].partitions[*].state"), contains("assigned", "assigned"));
+        assertThat(stats.read("$.items[0].partitions[*].stream_id"), contains(streamId, streamId));
+        assertThat(stats.read("$.items[0].partitions[*]"), everyItem(not(hasKey("consumer_lag_seconds"))));
+
+        stream.disconnect();
+    }
+
+    @Test
+    public void testSubscriptionStatsConsumerLag() throws IOException {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ((NakadiMockImpl) mock).clock = time::get;
+        String eventType = "example-event";
+        mock.eventType(eventType);
+        mock.subscription("sub", eventType);
+        mock.start();
+
+        postDataToUrl("[{'bla':'1'}]".replace('\'', '"'), submissionUrl(eventType));
+        time.addAndGet(2_000);
+        postDataToUrl("[{'bla':'2'}]".replace('\'', '"'), submissionUrl(eventType));
+        time.addAndGet(3_000);
+        assertThat(readStats("sub", "?show_time_lag=true").read("$.items[0].partitions[0].consumer_lag_seconds"),
+                is(5));
+
+        HttpURLConnection stream = openStream("sub", "");
+        String streamId = stream.getHeaderField("X-Nakadi-StreamId");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream.getInputStream(), StandardCharsets.UTF_8));
+        for (int expectedLag : new int[] { 3, 0 }) {
+            DocumentContext batch = JsonPath.parse(reader.readLine());
+            String cursor = "{\"items\": [" + JsonPath.parse((Object) batch.read("$.cursor")).jsonString() + "]}";
+            assertThat(commitCursors("sub", streamId, cursor).getResponseCode(), is(204));
+            assertThat(readStats("sub", "?show_time_lag=true").read("$.items[0].partitions[0].consumer_lag_seconds"),
+                    is(expectedLag));
+        }
+
+        stream.disconnect();
+    }
+
+    @Test
+    public void testStatsForUnknownSubscriptionGives404() throws IOException {
+        mock.start();
+        URL url = new URL(mock.getRootUrl(), "subscriptions/unknown/stats");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        assertThat(connection.getResponseCode(), is(404));
+    }
+
+    private DocumentContext readStats(String subscriptionId, String query) throws IOException {
+        URL url = new URL(mock.getRootUrl(), "subscriptions/" + subscriptionId + "/stats" + query);
+        return JsonPath.parse(url.openStream());
+    }
+
+    private List<Integer> partitionCounts(NakadiMock.Subscription subscription) {
+        return subscription.getAssignments().values().stream().map(List::size).collect(Collectors.toList());
+    }
+
+    private HttpURLConnection openStream(String subscriptionId, String query) throws IOException {
+        URL url = new URL(mock.getRootUrl(), "subscriptions/" + subscriptionId + "/events?" + query);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setReadTimeout(10_000);
+        return connection;
+    }
+
+    private HttpURLConnection commitCursors(String subscriptionId, String streamId, String cursors)
+            throws IOException {
+        URL url = new URL(mock.getRootUrl(), "subscriptions/" + subscriptionId + "/cursors");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("X-Nakadi-StreamId", streamId);
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        PrintStream out = new PrintStream(connection.getOutputStream(), true, "UTF-8");
+        out.print(cursors);
+        out.close();
+        return connection;
+    }
+
+    @Test
+    public void testSubmissionWithTooManyEventsWithJacksonCodec() throws IOException {
+        String eventType = "example-event";
+        mock.setJsonCodec(new JacksonJsonCodec());
+        mock.eventType(eventType).setMaxBatchSize(1);
+        mock.start();
+
+        String events = "[{'bla':'blub'}, {'egal':'wie'}]".replace('\'', '"');
+        HttpURLConnection connection = submitEventsAndReturnConnection(submissionUrl(eventType), events);
+        assertThat(connection.getResponseCode(), is(422));
+    }
+
+    private static class JacksonExampleEvent {
+        @JsonProperty("the_bla")
+        String bla;
+    }
+
     private static class ExampleEvent {
         public String bla;
         public String egal;
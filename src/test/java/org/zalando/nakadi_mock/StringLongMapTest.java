@@ -0,0 +1,51 @@
+package org.zalando.nakadi_mock;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class StringLongMapTest {
+
+    @Test
+    public void testManyKeysSurviveResizing() {
+        StringLongMap map = new StringLongMap();
+        int count = 5000;
+        for (int i = 0; i < count; i++) {
+            map.put("key-" + i, i * 3L);
+        }
+        assertThat(map.size(), is(count));
+        for (int i = 0; i < count; i++) {
+            assertThat(map.containsKey("key-" + i), is(true));
+            assertThat(map.get("key-" + i, -1), is(i * 3L));
+        }
+        assertThat(map.containsKey("key-" + count), is(false));
+        assertThat(map.get("key-" + count, -1), is(-1L));
+    }
+
+    @Test
+    public void testPutOverwritesWithoutGrowing() {
+        StringLongMap map = new StringLongMap();
+        for (int i = 0; i < 1000; i++) {
+            map.put("key-" + (i % 100), i);
+        }
+        assertThat(map.size(), is(100));
+        assertThat(map.get("key-5", -1), is(905L));
+    }
+
+    @Test
+    public void testClear() {
+        StringLongMap map = new StringLongMap();
+        for (int i = 0; i < 2000; i++) {
+            map.put("key-" + i, i);
+        }
+        map.clear();
+        assertThat(map.size(), is(0));
+        assertThat(map.containsKey("key-1"), is(false));
+        assertThat(map.get("key-1", -1), is(-1L));
+
+        map.put("key-1", 7);
+        assertThat(map.size(), is(1));
+        assertThat(map.get("key-1", -1), is(7L));
+    }
+}